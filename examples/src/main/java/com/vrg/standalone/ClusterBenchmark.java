@@ -0,0 +1,596 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.standalone;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import com.vrg.rapid.AlertBatchingStats;
+import com.vrg.rapid.Cluster;
+import com.vrg.rapid.ClusterEvents;
+import com.vrg.rapid.ClusterStatusChange;
+import com.vrg.rapid.Settings;
+import com.vrg.rapid.SharedResources;
+import com.vrg.rapid.messaging.IMessagingClient;
+import com.vrg.rapid.messaging.impl.GrpcClient;
+import com.vrg.rapid.messaging.impl.GrpcServer;
+import com.vrg.rapid.pb.Endpoint;
+import com.vrg.rapid.pb.RapidRequest;
+import com.vrg.rapid.pb.RapidResponse;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds in-JVM Rapid clusters over the in-process transport and measures how long they take to reach
+ * full agreement after parallel joins, concurrent failures and graceful leaves. Every phase reports the
+ * number of view changes, the messages and bytes sent, the CPU time spent per node, and the alerts sent
+ * along with the mean time they spent in the alert batcher's queue, as CSV or JSON, so that scaling
+ * regressions can be tracked across commits.
+ *
+ * <pre>
+ * {@code
+ *   java -cp cluster-benchmark.jar com.vrg.standalone.ClusterBenchmark --sizes 50,100,200 --failures 5 \
+ *        --leaves 5 --format csv --output results.csv --label $(git rev-parse --short HEAD)
+ * }
+ * </pre>
+ */
+public final class ClusterBenchmark {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterBenchmark.class);
+    private static final String LOCALHOST_IP = "127.0.0.1";
+    private static final int DEFAULT_BASE_PORT = 1234;
+    private static final int AGREEMENT_POLL_INTERVAL_MS = 10;
+    private static final long DEFAULT_AGREEMENT_TIMEOUT_MS = 120000;
+    private static final String CSV_HEADER = "label,scenario,clusterSize,k,converged,timeToAgreementMs,"
+                                             + "viewChanges,messages,bytes,cpuMsMean,cpuMsMax,alerts,alertQueueMsMean";
+    // Rapid names its threads <pool>-<host>:<port>-<n>, which lets us attribute CPU time to nodes.
+    private static final Pattern THREAD_NAME_PATTERN = Pattern.compile("-([^-\\s]+:\\d+)-");
+
+    private final Settings settings;
+    private final long agreementTimeoutMs;
+    private final Random random;
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private final Set<Long> observedConfigurations = ConcurrentHashMap.newKeySet();
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private int nextPort;
+
+    private ClusterBenchmark(final Settings settings, final int basePort, final long agreementTimeoutMs,
+                             final long seed) {
+        this.settings = settings;
+        this.nextPort = basePort;
+        this.agreementTimeoutMs = agreementTimeoutMs;
+        this.random = new Random(seed);
+        if (threadMXBean.isThreadCpuTimeSupported() && !threadMXBean.isThreadCpuTimeEnabled()) {
+            threadMXBean.setThreadCpuTimeEnabled(true);
+        }
+    }
+
+    /**
+     * Runs the join, failure and leave phases against a fresh cluster of {@code clusterSize} nodes.
+     *
+     * @param clusterSize number of nodes to bring up, including the seed
+     * @param failures number of nodes to crash concurrently once the cluster has formed
+     * @param leaves number of nodes to remove gracefully after the failures have been handled
+     * @return one result per phase that was executed
+     */
+    private List<Result> run(final int clusterSize, final int failures, final int leaves)
+                                                                throws IOException, InterruptedException {
+        final List<Result> results = new ArrayList<>(3);
+        try {
+            final Node seed = newNode();
+            final List<Node> joiners = new ArrayList<>(clusterSize - 1);
+            for (int i = 0; i < clusterSize - 1; i++) {
+                joiners.add(newNode());
+            }
+            final HostAndPort seedAddress = seed.address;
+            Phase phase = beginPhase();
+            seed.cluster = seed.builder(settings).start();
+            runConcurrently(joiners, node -> {
+                try {
+                    node.cluster = node.builder(settings).join(seedAddress);
+                } catch (final IOException | InterruptedException e) {
+                    LOG.error("Node {} could not join through {}: {}", node.address, seedAddress, e);
+                }
+            });
+            results.add(endPhase(phase, "join", clusterSize, clusterSize - 1, clusterSize));
+
+            int size = clusterSize;
+            if (failures > 0 && size - failures > 1) {
+                final List<Node> toFail = pickVictims(seed, failures);
+                phase = beginPhase();
+                runConcurrently(toFail, node -> node.shutdown(false));
+                size -= failures;
+                results.add(endPhase(phase, "fail", clusterSize, failures, size));
+            }
+
+            if (leaves > 0 && size - leaves > 1) {
+                final List<Node> toLeave = pickVictims(seed, leaves);
+                phase = beginPhase();
+                runConcurrently(toLeave, node -> node.shutdown(true));
+                size -= leaves;
+                results.add(endPhase(phase, "leave", clusterSize, leaves, size));
+            }
+        } finally {
+            for (final Node node : nodes.values()) {
+                node.shutdown(false);
+            }
+            nodes.clear();
+        }
+        return results;
+    }
+
+    private Node newNode() {
+        final Node node = new Node(HostAndPort.fromParts(LOCALHOST_IP, nextPort++), settings,
+                                   observedConfigurations);
+        nodes.put(node.threadTag, node);
+        return node;
+    }
+
+    /**
+     * Chooses {@code count} live nodes other than the seed, which remains the contact point for the cluster.
+     */
+    private List<Node> pickVictims(final Node seed, final int count) {
+        final List<Node> candidates = nodes.values().stream()
+                .filter(node -> node != seed && node.isAlive())
+                .collect(Collectors.toList());
+        Collections.shuffle(candidates, random);
+        return candidates.subList(0, Math.min(count, candidates.size()));
+    }
+
+    private Phase beginPhase() {
+        observedConfigurations.clear();
+        return new Phase(System.nanoTime(), totalMessages(), totalBytes(), totalAlertsSent(),
+                         totalAlertTimeInQueueNs(), sampleCpuTimes());
+    }
+
+    /**
+     * Waits until every live node has installed the same configuration of {@code expectedSize} members
+     * and summarizes the phase.
+     */
+    private Result endPhase(final Phase phase, final String scenario, final int clusterSize, final int k,
+                            final int expectedSize) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(agreementTimeoutMs);
+        boolean converged = hasAgreement(expectedSize);
+        while (!converged && System.nanoTime() < deadline) {
+            Thread.sleep(AGREEMENT_POLL_INTERVAL_MS);
+            converged = hasAgreement(expectedSize);
+        }
+        long lastViewChange = phase.startNanos;
+        for (final Node node : nodes.values()) {
+            if (node.isAlive()) {
+                lastViewChange = Math.max(lastViewChange, node.lastViewChangeNanos);
+            }
+        }
+        final long timeToAgreementMs = converged
+                                       ? TimeUnit.NANOSECONDS.toMillis(lastViewChange - phase.startNanos)
+                                       : -1;
+        final Map<String, Long> cpuNanosPerNode = cpuDelta(phase.cpuNanosPerThread);
+        final double cpuMsMean = cpuNanosPerNode.values().stream().mapToLong(Long::longValue).average()
+                                                .orElse(0) / TimeUnit.MILLISECONDS.toNanos(1);
+        final double cpuMsMax = cpuNanosPerNode.values().stream().mapToLong(Long::longValue).max()
+                                               .orElse(0) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        final long alerts = totalAlertsSent() - phase.alerts;
+        final double alertQueueMsMean = alerts == 0 ? 0 : (totalAlertTimeInQueueNs() - phase.alertTimeInQueueNs)
+                                                          / (double) alerts / TimeUnit.MILLISECONDS.toNanos(1);
+        final Result result = new Result(scenario, clusterSize, k, converged, timeToAgreementMs,
+                                         observedConfigurations.size(), totalMessages() - phase.messages,
+                                         totalBytes() - phase.bytes, cpuMsMean, cpuMsMax, alerts,
+                                         alertQueueMsMean);
+        LOG.info("{}", result.toCsv(""));
+        return result;
+    }
+
+    private boolean hasAgreement(final int expectedSize) {
+        long configurationId = 0;
+        boolean first = true;
+        for (final Node node : nodes.values()) {
+            if (!node.isAlive()) {
+                continue;
+            }
+            if (node.lastMembershipSize != expectedSize) {
+                return false;
+            }
+            if (first) {
+                configurationId = node.lastConfigurationId;
+                first = false;
+            } else if (configurationId != node.lastConfigurationId) {
+                return false;
+            }
+        }
+        return !first;
+    }
+
+    private long totalMessages() {
+        return nodes.values().stream().mapToLong(node -> node.client.messages.get()).sum();
+    }
+
+    private long totalBytes() {
+        return nodes.values().stream().mapToLong(node -> node.client.bytes.get()).sum();
+    }
+
+    private long totalAlertsSent() {
+        return alertBatchingStats().mapToLong(AlertBatchingStats::getAlertsSent).sum();
+    }
+
+    private long totalAlertTimeInQueueNs() {
+        return alertBatchingStats().mapToLong(AlertBatchingStats::getTotalTimeInQueueNs).sum();
+    }
+
+    /**
+     * The alert batching statistics of every node that has started, including those shut down since.
+     */
+    private Stream<AlertBatchingStats> alertBatchingStats() {
+        return nodes.values().stream().map(node -> node.cluster).filter(Objects::nonNull)
+                    .map(Cluster::getAlertBatchingStats);
+    }
+
+    private Map<Long, Long> sampleCpuTimes() {
+        final Map<Long, Long> cpuNanosPerThread = new HashMap<>();
+        for (final long threadId : threadMXBean.getAllThreadIds()) {
+            final long cpuNanos = threadMXBean.getThreadCpuTime(threadId);
+            if (cpuNanos >= 0) {
+                cpuNanosPerThread.put(threadId, cpuNanos);
+            }
+        }
+        return cpuNanosPerThread;
+    }
+
+    /**
+     * CPU time consumed by each node's threads since {@code start}. Threads that terminated during the phase
+     * (for example, those of a node that was shut down) are not accounted for.
+     */
+    private Map<String, Long> cpuDelta(final Map<Long, Long> start) {
+        final Map<String, Long> cpuNanosPerNode = new HashMap<>();
+        for (final ThreadInfo info : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds())) {
+            if (info == null) {
+                continue;
+            }
+            final Matcher matcher = THREAD_NAME_PATTERN.matcher(info.getThreadName());
+            if (!matcher.find() || !nodes.containsKey(matcher.group(1))) {
+                continue;
+            }
+            final long cpuNanos = threadMXBean.getThreadCpuTime(info.getThreadId());
+            if (cpuNanos < 0) {
+                continue;
+            }
+            final long delta = cpuNanos - start.getOrDefault(info.getThreadId(), 0L);
+            cpuNanosPerNode.merge(matcher.group(1), delta, Long::sum);
+        }
+        return cpuNanosPerNode;
+    }
+
+    private static void runConcurrently(final List<Node> targets, final Consumer<Node> action)
+                                                                                throws InterruptedException {
+        if (targets.isEmpty()) {
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(targets.size(), 64));
+        try {
+            final CountDownLatch latch = new CountDownLatch(targets.size());
+            for (final Node node : targets) {
+                executor.execute(() -> {
+                    try {
+                        action.accept(node);
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Counters captured at the start of a phase.
+     */
+    private static final class Phase {
+        private final long startNanos;
+        private final long messages;
+        private final long bytes;
+        private final long alerts;
+        private final long alertTimeInQueueNs;
+        private final Map<Long, Long> cpuNanosPerThread;
+
+        Phase(final long startNanos, final long messages, final long bytes, final long alerts,
+              final long alertTimeInQueueNs, final Map<Long, Long> cpuNanosPerThread) {
+            this.startNanos = startNanos;
+            this.messages = messages;
+            this.bytes = bytes;
+            this.alerts = alerts;
+            this.alertTimeInQueueNs = alertTimeInQueueNs;
+            this.cpuNanosPerThread = cpuNanosPerThread;
+        }
+    }
+
+    /**
+     * A single Rapid instance along with the instrumentation the benchmark needs.
+     */
+    private static final class Node {
+        private final HostAndPort address;
+        private final String threadTag;
+        private final SharedResources messagingResources;
+        private final CountingMessagingClient client;
+        private final GrpcServer server;
+        private final Set<Long> observedConfigurations;
+        @Nullable private volatile Cluster cluster = null;
+        private volatile boolean shutdown = false;
+        private volatile long lastConfigurationId = -1;
+        private volatile int lastMembershipSize = 0;
+        private volatile long lastViewChangeNanos = 0;
+
+        Node(final HostAndPort address, final Settings settings, final Set<Long> observedConfigurations) {
+            final Endpoint endpoint = Endpoint.newBuilder()
+                                              .setHostname(ByteString.copyFromUtf8(address.getHost()))
+                                              .setPort(address.getPort()).build();
+            this.address = address;
+            this.threadTag = address.getHost() + ":" + address.getPort();
+            this.observedConfigurations = observedConfigurations;
+            this.messagingResources = new SharedResources(endpoint);
+            this.client = new CountingMessagingClient(new GrpcClient(endpoint, messagingResources, settings));
+            this.server = new GrpcServer(endpoint, messagingResources, settings.getUseInProcessTransport());
+        }
+
+        Cluster.Builder builder(final Settings settings) {
+            return new Cluster.Builder(address, address)
+                    .useSettings(settings)
+                    .setMessagingClientAndServer(client, server)
+                    .addSubscription(ClusterEvents.VIEW_CHANGE, this::onViewChange);
+        }
+
+        boolean isAlive() {
+            return !shutdown && cluster != null;
+        }
+
+        void onViewChange(final ClusterStatusChange statusChange) {
+            lastViewChangeNanos = System.nanoTime();
+            lastMembershipSize = statusChange.getMembership().size();
+            lastConfigurationId = statusChange.getConfigurationId();
+            observedConfigurations.add(statusChange.getConfigurationId());
+        }
+
+        synchronized void shutdown(final boolean gracefully) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            final Cluster instance = cluster;
+            if (instance != null) {
+                if (gracefully) {
+                    instance.leaveGracefully();
+                } else {
+                    instance.shutdown();
+                }
+            }
+            // The Cluster only releases the resources it created itself.
+            messagingResources.getServerExecutor().shutdownNow();
+            messagingResources.getClientChannelExecutor().shutdownNow();
+            messagingResources.getBackgroundExecutor().shutdownNow();
+            messagingResources.getProtocolExecutor().shutdownNow();
+            messagingResources.getScheduledTasksExecutor().shutdownNow();
+        }
+    }
+
+    /**
+     * Counts every request a node sends, along with the serialized size of requests and responses.
+     */
+    private static final class CountingMessagingClient implements IMessagingClient {
+        private final IMessagingClient delegate;
+        private final AtomicLong messages = new AtomicLong(0);
+        private final AtomicLong bytes = new AtomicLong(0);
+        private final FutureCallback<RapidResponse> responseCounter = new FutureCallback<RapidResponse>() {
+            @Override
+            public void onSuccess(@Nullable final RapidResponse response) {
+                if (response != null) {
+                    bytes.addAndGet(response.getSerializedSize());
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable throwable) {
+                // Failed calls have no response to account for.
+            }
+        };
+
+        CountingMessagingClient(final IMessagingClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ListenableFuture<RapidResponse> sendMessage(final Endpoint remote, final RapidRequest msg) {
+            return count(msg, delegate.sendMessage(remote, msg));
+        }
+
+        @Override
+        public ListenableFuture<RapidResponse> sendMessageBestEffort(final Endpoint remote, final RapidRequest msg) {
+            return count(msg, delegate.sendMessageBestEffort(remote, msg));
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        private ListenableFuture<RapidResponse> count(final RapidRequest msg,
+                                                      final ListenableFuture<RapidResponse> response) {
+            messages.incrementAndGet();
+            bytes.addAndGet(msg.getSerializedSize());
+            Futures.addCallback(response, responseCounter, MoreExecutors.directExecutor());
+            return response;
+        }
+    }
+
+    /**
+     * Measurements for a single phase of a benchmark run.
+     */
+    private static final class Result {
+        private final String scenario;
+        private final int clusterSize;
+        private final int k;
+        private final boolean converged;
+        private final long timeToAgreementMs;
+        private final int viewChanges;
+        private final long messages;
+        private final long bytes;
+        private final double cpuMsMean;
+        private final double cpuMsMax;
+        private final long alerts;
+        private final double alertQueueMsMean;
+
+        Result(final String scenario, final int clusterSize, final int k, final boolean converged,
+               final long timeToAgreementMs, final int viewChanges, final long messages, final long bytes,
+               final double cpuMsMean, final double cpuMsMax, final long alerts, final double alertQueueMsMean) {
+            this.scenario = scenario;
+            this.clusterSize = clusterSize;
+            this.k = k;
+            this.converged = converged;
+            this.timeToAgreementMs = timeToAgreementMs;
+            this.viewChanges = viewChanges;
+            this.messages = messages;
+            this.bytes = bytes;
+            this.cpuMsMean = cpuMsMean;
+            this.cpuMsMax = cpuMsMax;
+            this.alerts = alerts;
+            this.alertQueueMsMean = alertQueueMsMean;
+        }
+
+        String toCsv(final String label) {
+            return String.format(Locale.ROOT, "%s,%s,%d,%d,%b,%d,%d,%d,%d,%.2f,%.2f,%d,%.2f", label, scenario,
+                                 clusterSize, k, converged, timeToAgreementMs, viewChanges, messages, bytes,
+                                 cpuMsMean, cpuMsMax, alerts, alertQueueMsMean);
+        }
+
+        String toJson(final String label) {
+            return String.format(Locale.ROOT, "{\"label\":\"%s\",\"scenario\":\"%s\",\"clusterSize\":%d,"
+                                 + "\"k\":%d,\"converged\":%b,\"timeToAgreementMs\":%d,\"viewChanges\":%d,"
+                                 + "\"messages\":%d,\"bytes\":%d,\"cpuMsMean\":%.2f,\"cpuMsMax\":%.2f,"
+                                 + "\"alerts\":%d,\"alertQueueMsMean\":%.2f}",
+                                 label.replace("\\", "\\\\").replace("\"", "\\\""), scenario, clusterSize, k,
+                                 converged, timeToAgreementMs, viewChanges, messages, bytes, cpuMsMean, cpuMsMax,
+                                 alerts, alertQueueMsMean);
+        }
+    }
+
+    private static void writeResults(final List<Result> results, final String format, final String label,
+                                     final PrintWriter writer) {
+        if ("json".equals(format)) {
+            writer.println(results.stream().map(r -> r.toJson(label))
+                                  .collect(Collectors.joining(",\n  ", "[\n  ", "\n]")));
+        } else {
+            writer.println(CSV_HEADER);
+            results.forEach(r -> writer.println(r.toCsv(label)));
+        }
+        writer.flush();
+    }
+
+    public static void main(final String[] args) throws ParseException, IOException, InterruptedException {
+        final Options options = new Options();
+        options.addOption("n", "sizes", true, "Comma separated cluster sizes to benchmark (default: 10,50,100)");
+        options.addOption("f", "failures", true, "Number of nodes to crash concurrently (default: 1)");
+        options.addOption("g", "leaves", true, "Number of nodes to remove gracefully (default: 1)");
+        options.addOption("r", "repetitions", true, "Runs per cluster size (default: 1)");
+        options.addOption("i", "fdInterval", true, "Failure detector interval in ms (default: 50)");
+        options.addOption("b", "basePort", true, "First port to allocate to nodes (default: 1234)");
+        options.addOption("t", "timeout", true, "Time to wait for agreement per phase in ms (default: 120000)");
+        options.addOption("s", "seed", true, "Random seed used to pick nodes to fail or remove");
+        options.addOption("o", "output", true, "File to write results to (default: stdout)");
+        options.addOption("F", "format", true, "Output format: csv or json (default: csv)");
+        options.addOption("L", "label", true, "Label attached to every row, such as a commit hash");
+        final CommandLineParser parser = new DefaultParser();
+        final CommandLine cmd = parser.parse(options, args);
+
+        final List<Integer> sizes = new ArrayList<>();
+        for (final String size : cmd.getOptionValue("sizes", "10,50,100").split(",")) {
+            sizes.add(Integer.parseInt(size.trim()));
+        }
+        final int failures = Integer.parseInt(cmd.getOptionValue("failures", "1"));
+        final int leaves = Integer.parseInt(cmd.getOptionValue("leaves", "1"));
+        final int repetitions = Integer.parseInt(cmd.getOptionValue("repetitions", "1"));
+        final int basePort = Integer.parseInt(cmd.getOptionValue("basePort", String.valueOf(DEFAULT_BASE_PORT)));
+        final long timeout = Long.parseLong(cmd.getOptionValue("timeout",
+                                                               String.valueOf(DEFAULT_AGREEMENT_TIMEOUT_MS)));
+        final long seed = Long.parseLong(cmd.getOptionValue("seed", String.valueOf(System.nanoTime())));
+        final String format = cmd.getOptionValue("format", "csv").toLowerCase(Locale.ROOT);
+        final String label = cmd.getOptionValue("label", "");
+
+        // Nodes share the JVM, so use the in-process transport and a failure detector that reacts quickly.
+        final Settings settings = new Settings();
+        settings.setUseInProcessTransport(true);
+        settings.setFailureDetectorIntervalInMs(Integer.parseInt(cmd.getOptionValue("fdInterval", "50")));
+        settings.setGrpcProbeTimeoutMs(10);
+
+        LOG.info("Benchmarking cluster sizes {} with {} failures and {} leaves (seed: {})", sizes, failures,
+                 leaves, seed);
+        final List<Result> results = new ArrayList<>();
+        int port = basePort;
+        for (final int size : sizes) {
+            for (int repetition = 0; repetition < repetitions; repetition++) {
+                // Avoid reusing ports of nodes that might still be shutting down.
+                final ClusterBenchmark benchmark = new ClusterBenchmark(settings, port, timeout, seed + repetition);
+                results.addAll(benchmark.run(size, failures, leaves));
+                port += size;
+            }
+        }
+
+        final String output = cmd.getOptionValue("output");
+        if (output == null) {
+            writeResults(results, format, label,
+                         new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        } else {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(output),
+                                                                              StandardCharsets.UTF_8))) {
+                writeResults(results, format, label, writer);
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.AlertMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Batches outgoing AlertMessages. A batch is flushed when the first of the following happens:
+ *
+ * 1. it holds maxAlertBatchSize alerts,
+ * 2. no alert of our own was queued for a quiet window, or
+ * 3. its oldest alert has been queued for maxAlertBatchDelayInMs.
+ *
+ * The quiet window adapts to the observed arrival rate: it is a small multiple of a moving average of the
+ * time between alerts, bounded by the batching window. A burst with closely spaced alerts is flushed soon
+ * after it ends, while sparse alerts are still given the full batching window to coalesce. Flushes are
+ * scheduled from enqueue events, so an idle batcher does not run at all.
+ *
+ * The time each alert spends queued is recorded when its batch is flushed, see {@link #getStats()}.
+ * Batches are handed to the flusher without holding the batcher's lock, so that enqueuing never waits
+ * for a batch to be sent.
+ */
+@ThreadSafe
+final class AlertBatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(AlertBatcher.class);
+    private static final long MIN_WINDOW_NS = TimeUnit.MILLISECONDS.toNanos(5);
+    // The quiet window is this many mean inter-arrival times
+    private static final int WINDOW_TO_INTER_ARRIVAL_RATIO = 4;
+    // Weight of a new sample in the moving average of inter-arrival times
+    private static final double INTER_ARRIVAL_GAIN = 0.125;
+    private final ScheduledExecutorService executor;
+    private final Consumer<List<AlertMessage>> flusher;
+    private final int maxBatchSize;
+    private final long maxWindowNs;
+    private final long maxDelayNs;
+
+    @GuardedBy("this") private final List<AlertMessage> queue = new ArrayList<>();
+    @GuardedBy("this") private long[] enqueueTimes = new long[16];
+    @GuardedBy("this") private long lastEnqueueTime;
+    @GuardedBy("this") private long lastArrivalTime;
+    @GuardedBy("this") private boolean hasArrived = false;
+    @GuardedBy("this") private double meanInterArrivalNs;
+    @GuardedBy("this") @Nullable private ScheduledFuture<?> pendingFlush = null;
+    @GuardedBy("this") private long pendingFlushTime;
+    @GuardedBy("this") private boolean isShutdown = false;
+
+    // Time-in-queue statistics over all flushed alerts
+    @GuardedBy("this") private long alertsFlushed = 0;
+    @GuardedBy("this") private long totalTimeInQueueNs = 0;
+    @GuardedBy("this") private long maxTimeInQueueNs = 0;
+
+    AlertBatcher(final ScheduledExecutorService executor, final Consumer<List<AlertMessage>> flusher,
+                 final int maxBatchSize, final long maxWindowInMs, final long maxDelayInMs) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Maximum batch size must be positive: " + maxBatchSize);
+        }
+        this.executor = executor;
+        this.flusher = flusher;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWindowNs = TimeUnit.MILLISECONDS.toNanos(maxWindowInMs);
+        this.maxDelayNs = Math.max(maxWindowNs, TimeUnit.MILLISECONDS.toNanos(maxDelayInMs));
+        this.meanInterArrivalNs = (double) maxWindowNs / WINDOW_TO_INTER_ARRIVAL_RATIO;
+    }
+
+    /**
+     * Queues one of our own alerts, which restarts the quiet window.
+     */
+    void enqueue(final AlertMessage msg) {
+        final List<AlertMessage> batch;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            add(msg, now);
+            lastEnqueueTime = now;
+            batch = afterEnqueue(now);
+        }
+        send(batch);
+    }
+
+    /**
+     * Queues alerts received from other nodes to be relayed. Unlike our own alerts, relayed alerts do not
+     * restart the quiet window, so that a steady stream of them cannot hold back a batch.
+     */
+    void enqueueRelayed(final List<AlertMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        final List<AlertMessage> batch;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            if (queue.isEmpty()) {
+                lastEnqueueTime = now;
+            }
+            for (final AlertMessage msg : messages) {
+                add(msg, now);
+            }
+            batch = afterEnqueue(now);
+        }
+        send(batch);
+    }
+
+    /**
+     * Drops queued alerts and stops scheduling flushes.
+     */
+    synchronized void shutdown() {
+        isShutdown = true;
+        queue.clear();
+        if (pendingFlush != null) {
+            pendingFlush.cancel(true);
+            pendingFlush = null;
+        }
+    }
+
+    /**
+     * The current quiet window in nanoseconds.
+     */
+    synchronized long getWindowNs() {
+        final long window = (long) (WINDOW_TO_INTER_ARRIVAL_RATIO * meanInterArrivalNs);
+        return Math.max(Math.min(MIN_WINDOW_NS, maxWindowNs), Math.min(window, maxWindowNs));
+    }
+
+    /**
+     * The time-in-queue statistics over all alerts flushed so far.
+     */
+    synchronized AlertBatchingStats getStats() {
+        return new AlertBatchingStats(alertsFlushed, totalTimeInQueueNs, maxTimeInQueueNs);
+    }
+
+    @GuardedBy("this")
+    private void add(final AlertMessage msg, final long now) {
+        if (queue.size() == enqueueTimes.length) {
+            enqueueTimes = Arrays.copyOf(enqueueTimes, enqueueTimes.length * 2);
+        }
+        enqueueTimes[queue.size()] = now;
+        queue.add(msg);
+
+        // A gap longer than the batching window starts a new burst and says nothing about its rate
+        final long interArrival = hasArrived ? Math.min(now - lastArrivalTime, maxWindowNs) : maxWindowNs;
+        meanInterArrivalNs += INTER_ARRIVAL_GAIN * (interArrival - meanInterArrivalNs);
+        lastArrivalTime = now;
+        hasArrived = true;
+    }
+
+    /**
+     * @return a batch to send if the queue must be flushed now, or null.
+     */
+    @GuardedBy("this")
+    @Nullable
+    private List<AlertMessage> afterEnqueue(final long now) {
+        if (isShutdown) {
+            queue.clear();
+            return null;
+        }
+        if (queue.size() >= maxBatchSize) {
+            return takeBatch(now);
+        }
+        scheduleFlush(now);
+        return null;
+    }
+
+    /**
+     * Makes sure a flush is scheduled no later than the current deadline of the queued batch.
+     */
+    @GuardedBy("this")
+    private void scheduleFlush(final long now) {
+        final long deadline = deadline();
+        if (pendingFlush != null) {
+            if (deadline - pendingFlushTime >= 0) {
+                // The pending flush re-checks the deadline when it runs
+                return;
+            }
+            pendingFlush.cancel(false);
+        }
+        pendingFlushTime = deadline;
+        pendingFlush = executor.schedule(this::onTimer, Math.max(0, deadline - now), TimeUnit.NANOSECONDS);
+    }
+
+    @GuardedBy("this")
+    private long deadline() {
+        return Math.min(lastEnqueueTime + getWindowNs(), enqueueTimes[0] + maxDelayNs);
+    }
+
+    private void onTimer() {
+        List<AlertMessage> batch = null;
+        synchronized (this) {
+            pendingFlush = null;
+            if (isShutdown || queue.isEmpty()) {
+                return;
+            }
+            final long now = System.nanoTime();
+            if (now - deadline() >= 0) {
+                batch = takeBatch(now);
+            } else {
+                scheduleFlush(now);
+            }
+        }
+        send(batch);
+    }
+
+    private void send(@Nullable final List<AlertMessage> batch) {
+        if (batch != null) {
+            flusher.accept(batch);
+        }
+    }
+
+    /**
+     * Empties the queue into a batch, recording the time each alert spent in the queue.
+     */
+    @GuardedBy("this")
+    private List<AlertMessage> takeBatch(final long now) {
+        final int size = queue.size();
+        long maxInQueue = 0;
+        long totalInQueue = 0;
+        for (int i = 0; i < size; i++) {
+            final long timeInQueue = now - enqueueTimes[i];
+            totalInQueue += timeInQueue;
+            maxInQueue = Math.max(maxInQueue, timeInQueue);
+        }
+        alertsFlushed += size;
+        totalTimeInQueueNs += totalInQueue;
+        maxTimeInQueueNs = Math.max(maxTimeInQueueNs, maxInQueue);
+        LOG.trace("Sending out {} messages, time in queue: {mean: {}us, max: {}us}", size,
+                TimeUnit.NANOSECONDS.toMicros(totalInQueue / size), TimeUnit.NANOSECONDS.toMicros(maxInQueue));
+
+        final List<AlertMessage> batch = Collections.unmodifiableList(new ArrayList<>(queue));
+        queue.clear();
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        return batch;
+    }
+}
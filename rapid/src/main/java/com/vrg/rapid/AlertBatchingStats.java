@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.vrg.rapid;
+
+import io.grpc.ExperimentalApi;
+
+/**
+ * How long the alerts sent by a node waited to be batched, over all alerts it has sent so far.
+ * Batching trades bandwidth against detection latency, and this is the latency side of it.
+ */
+@ExperimentalApi
+public final class AlertBatchingStats {
+    private final long alertsSent;
+    private final long totalTimeInQueueNs;
+    private final long maxTimeInQueueNs;
+
+    AlertBatchingStats(final long alertsSent, final long totalTimeInQueueNs, final long maxTimeInQueueNs) {
+        this.alertsSent = alertsSent;
+        this.totalTimeInQueueNs = totalTimeInQueueNs;
+        this.maxTimeInQueueNs = maxTimeInQueueNs;
+    }
+
+    /**
+     * @return the number of alerts sent, including alerts relayed on behalf of other nodes
+     */
+    public long getAlertsSent() {
+        return alertsSent;
+    }
+
+    /**
+     * @return the sum of the times the sent alerts spent queued, in nanoseconds
+     */
+    public long getTotalTimeInQueueNs() {
+        return totalTimeInQueueNs;
+    }
+
+    /**
+     * @return the mean time a sent alert spent queued, in nanoseconds, or 0 if none was sent
+     */
+    public long getMeanTimeInQueueNs() {
+        return alertsSent == 0 ? 0 : totalTimeInQueueNs / alertsSent;
+    }
+
+    /**
+     * @return the longest time a sent alert spent queued, in nanoseconds
+     */
+    public long getMaxTimeInQueueNs() {
+        return maxTimeInQueueNs;
+    }
+
+    @Override
+    public String toString() {
+        return "AlertBatchingStats{" +
+                "alertsSent=" + alertsSent +
+                ", meanTimeInQueueNs=" + getMeanTimeInQueueNs() +
+                ", maxTimeInQueueNs=" + maxTimeInQueueNs +
+                '}';
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.AlertMessage;
+import net.openhft.hashing.LongHashFunction;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drops copies of alerts that have already been received in the current configuration. Every alert is
+ * broadcast to all members or relayed between them, and batches overlap and are retried, so a node receives
+ * each alert many times.
+ * This filter runs on the messaging threads, before alerts are handed to the protocol executor.
+ *
+ * An alert is identified by a 64-bit hash of its configuration, edge, status and ring numbers, kept in an
+ * open-addressing set that is reset whenever the configuration changes. Within a configuration, a copy of
+ * an alert is always handled exactly like the original by the protocol, so dropping it is safe.
+ */
+@ThreadSafe
+final class AlertFilter {
+    private static final LongHashFunction HASH_FUNCTION = LongHashFunction.xx(0);
+    private static final long EMPTY = 0;
+    private static final int INITIAL_CAPACITY = 64;
+    @GuardedBy("this") private long configurationId;
+    @GuardedBy("this") private long[] table = new long[INITIAL_CAPACITY];
+    @GuardedBy("this") private int size = 0;
+
+    /**
+     * Returns the alerts in {@code alerts} that have not been seen before in {@code currentConfigurationId},
+     * and records them as seen. Alerts from other configurations are returned as is and are not recorded.
+     */
+    List<AlertMessage> retainUnseen(final List<AlertMessage> alerts, final long currentConfigurationId) {
+        final long[] keys = new long[alerts.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keyOf(alerts.get(i));
+        }
+        List<AlertMessage> unseen = null;
+        synchronized (this) {
+            if (configurationId != currentConfigurationId) {
+                configurationId = currentConfigurationId;
+                Arrays.fill(table, EMPTY);
+                size = 0;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                final AlertMessage alert = alerts.get(i);
+                final boolean isNew = alert.getConfigurationId() != currentConfigurationId || add(keys[i]);
+                if (isNew && unseen != null) {
+                    unseen.add(alert);
+                } else if (!isNew && unseen == null) {
+                    // First duplicate: keep everything before it
+                    unseen = new ArrayList<>(alerts.subList(0, i));
+                }
+            }
+        }
+        return unseen == null ? alerts : Collections.unmodifiableList(unseen);
+    }
+
+    @GuardedBy("this")
+    private boolean add(final long key) {
+        if (2 * (size + 1) > table.length) {
+            grow();
+        }
+        final int mask = table.length - 1;
+        for (int slot = slotFor(key, mask); ; slot = (slot + 1) & mask) {
+            if (table[slot] == key) {
+                return false;
+            }
+            if (table[slot] == EMPTY) {
+                table[slot] = key;
+                size++;
+                return true;
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void grow() {
+        final long[] old = table;
+        table = new long[old.length * 2];
+        final int mask = table.length - 1;
+        for (final long key : old) {
+            if (key != EMPTY) {
+                int slot = slotFor(key, mask);
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = key;
+            }
+        }
+    }
+
+    private static int slotFor(final long key, final int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * The identity of an alert. For UP alerts this includes the joiner's identifier and metadata, since a
+     * joiner that retries with a new identifier in the same configuration is reported again.
+     */
+    private static long keyOf(final AlertMessage alert) {
+        long key = HASH_FUNCTION.hashLong(alert.getConfigurationId());
+        key = key * 37 + MembershipView.Configuration.hash(alert.getEdgeSrc());
+        key = key * 37 + MembershipView.Configuration.hash(alert.getEdgeDst());
+        key = key * 37 + alert.getEdgeStatusValue();
+        for (int i = 0; i < alert.getRingNumberCount(); i++) {
+            key = key * 37 + alert.getRingNumber(i);
+        }
+        if (alert.hasNodeId()) {
+            key = key * 37 + alert.getNodeId().getHigh();
+            key = key * 37 + alert.getNodeId().getLow();
+        }
+        if (alert.hasMetadata()) {
+            key = key * 37 + alert.getMetadata().hashCode();
+        }
+        key = HASH_FUNCTION.hashLong(key);
+        return key == EMPTY ? 1 : key;
+    }
+}
@@ -22,7 +22,10 @@ import com.vrg.rapid.messaging.IMessagingServer;
 import com.vrg.rapid.messaging.impl.GrpcClient;
 import com.vrg.rapid.messaging.impl.GrpcServer;
 import com.vrg.rapid.monitoring.IEdgeFailureDetectorFactory;
+import com.vrg.rapid.monitoring.impl.IndirectProbeFailureDetector;
+import com.vrg.rapid.monitoring.impl.PhiAccrualFailureDetector;
 import com.vrg.rapid.monitoring.impl.PingPongFailureDetector;
+import com.vrg.rapid.monitoring.impl.UdpHeartbeatFailureDetector;
 import com.vrg.rapid.pb.Endpoint;
 import com.vrg.rapid.pb.JoinMessage;
 import com.vrg.rapid.pb.JoinResponse;
@@ -133,7 +136,8 @@ public final class Cluster {
     }
 
     /**
-     * Register callbacks for cluster events.
+     * Register callbacks for cluster events. Callbacks run asynchronously on a dedicated thread, and each
+     * callback receives its events in order.
      *
      * @param event Cluster event to subscribe to
      * @param callback Callback to be executed when {@code event} occurs.
@@ -143,6 +147,32 @@ public final class Cluster {
         membershipService.registerSubscription(event, callback);
     }
 
+    /**
+     * Returns a publisher of membership changes as deltas, for applications that track the membership
+     * themselves instead of receiving the full membership with every VIEW_CHANGE event.
+     *
+     * @return the publisher of membership deltas
+     * @throws IllegalStateException when trying to subscribe after shutting down
+     */
+    @ExperimentalApi
+    public MembershipDeltaPublisher getMembershipDeltaPublisher() {
+        if (hasShutdown) {
+            throw new IllegalStateException("Can't subscribe to membership changes after having shut down");
+        }
+        return membershipService.getDeltaPublisher();
+    }
+
+    /**
+     * Returns how long the alerts this node sent waited to be batched. Unlike the membership, these statistics
+     * remain available after shutting down.
+     *
+     * @return the time-in-queue statistics of the alerts sent so far
+     */
+    @ExperimentalApi
+    public AlertBatchingStats getAlertBatchingStats() {
+        return membershipService.getAlertBatchingStats();
+    }
+
     /**
      * Gracefully leaves the cluster by informing observers of the intent and then shuts down the entire system
      */
@@ -276,7 +306,7 @@ public final class Cluster {
                     Collections.singletonList(publicAddress));
             final MultiNodeCutDetector cutDetector = new MultiNodeCutDetector(K, H, L);
             edgeFailureDetector = edgeFailureDetector != null ? edgeFailureDetector
-                    : new PingPongFailureDetector.Factory(listenAddress, messagingClient);
+                    : createDefaultFailureDetector(listenAddress);
 
             final Map<Endpoint, Metadata> metadataMap = metadata.getMetadataCount() > 0
                                                     ? Collections.singletonMap(publicAddress, metadata)
@@ -450,6 +480,32 @@ public final class Cluster {
             return Futures.successfulAsList(responseFutures).get();
         }
 
+        /**
+         * The ping-pong failure detector, with passive liveness and an adaptive probe interval if the settings
+         * ask for them, or the UDP heartbeat failure detector.
+         */
+        private IEdgeFailureDetectorFactory createDefaultFailureDetector(final Endpoint address) {
+            assert messagingClient != null && sharedResources != null;
+            if (settings.getUseUdpHeartbeats()) {
+                return new UdpHeartbeatFailureDetector.Factory(listenAddress, sharedResources.getEventLoopGroup());
+            }
+            if (settings.getUsePhiAccrualFailureDetector()) {
+                return new PhiAccrualFailureDetector.Factory(address, messagingClient,
+                                                             settings.getFailureDetectorIntervalInMs());
+            }
+            if (settings.getUseIndirectProbes()) {
+                return new IndirectProbeFailureDetector.Factory(address, messagingClient);
+            }
+            final int maxProbePeriod = Math.max(1, settings.getFailureDetectorMaxIntervalInMs()
+                                                   / settings.getFailureDetectorIntervalInMs());
+            final int suspectIntervalInMs = settings.getFailureDetectorSuspectIntervalInMs();
+            return new PingPongFailureDetector.Factory(address, messagingClient,
+                    settings.getUsePassiveLiveness() ? sharedResources.getPeerActivityTracker() : null,
+                    settings.getFailureDetectorIntervalInMs(), maxProbePeriod,
+                    suspectIntervalInMs > 0 ? sharedResources.getScheduledTasksExecutor() : null,
+                    suspectIntervalInMs);
+        }
+
         /**
          * We have a valid JoinPhase2Response. Use the retrieved configuration to construct and return a Cluster object.
          */
@@ -458,7 +514,10 @@ public final class Cluster {
             // Safe to proceed. Extract the list of endpoints and identifiers from the message,
             // assemble a MembershipService object and start an RpcServer.
             final List<Endpoint> allEndpoints = response.getEndpointsList();
-            final List<NodeId> identifiersSeen = response.getIdentifiersList();
+            // Peers send the identifiers in packed form, but still accept the repeated field
+            final IdentifierSet identifiersSeen = response.getPackedIdentifiers().isEmpty()
+                                                    ? IdentifierSet.of(response.getIdentifiersList())
+                                                    : IdentifierSet.decode(response.getPackedIdentifiers());
             final Map<Endpoint, Metadata> allMetadata = new HashMap<>();
             for (int i = 0; i < response.getMetadataKeysCount(); i++) {
                 final Endpoint key = response.getMetadataKeys(i);
@@ -466,14 +525,14 @@ public final class Cluster {
                 allMetadata.put(key, value);
             }
 
-            assert !identifiersSeen.isEmpty();
+            assert identifiersSeen.size() > 0;
             assert !allEndpoints.isEmpty();
 
             final MembershipView membershipViewFinal =
                     new MembershipView(K, identifiersSeen, allEndpoints);
             final MultiNodeCutDetector cutDetector = new MultiNodeCutDetector(K, H, L);
             edgeFailureDetector = edgeFailureDetector != null ? edgeFailureDetector
-                                                  : new PingPongFailureDetector.Factory(publicAddress, messagingClient);
+                                                  : createDefaultFailureDetector(publicAddress);
             final MembershipService membershipService =
                     new MembershipService(publicAddress, cutDetector, membershipViewFinal,
                            sharedResources, settings, messagingClient, edgeFailureDetector, allMetadata, subscriptions);
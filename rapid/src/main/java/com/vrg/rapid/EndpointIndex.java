@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Interns endpoints to dense integer indices, so that per-node state can be kept in primitive arrays
+ * and bitsets instead of maps keyed by Endpoint. Indices of removed endpoints are recycled, and every
+ * index handed out is smaller than {@link #limit()}.
+ *
+ * The lookup table is an open-addressing hash table of indices with linear probing.
+ */
+@NotThreadSafe
+final class EndpointIndex {
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    private Endpoint[] endpoints;
+    private int[] table;
+    private int[] freeIndices;
+    private int freeCount = 0;
+    private int limit = 0;
+    private int size = 0;
+
+    EndpointIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private EndpointIndex(final EndpointIndex other) {
+        this.endpoints = other.endpoints.clone();
+        this.table = other.table.clone();
+        this.freeIndices = other.freeIndices.clone();
+        this.freeCount = other.freeCount;
+        this.limit = other.limit;
+        this.size = other.size;
+    }
+
+    EndpointIndex(final int expectedSize) {
+        final int capacity = Math.max(INITIAL_CAPACITY, expectedSize);
+        this.endpoints = new Endpoint[capacity];
+        this.freeIndices = new int[capacity];
+        this.table = new int[tableSizeFor(capacity)];
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Returns the index assigned to {@code endpoint}, or -1 if it has not been interned.
+     */
+    int indexOf(final Endpoint endpoint) {
+        final int mask = table.length - 1;
+        for (int slot = slotFor(endpoint, mask); table[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (endpoints[table[slot]].equals(endpoint)) {
+                return table[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Interns {@code endpoint}, returning its existing index if it is already present.
+     */
+    int add(final Endpoint endpoint) {
+        Objects.requireNonNull(endpoint);
+        final int existing = indexOf(endpoint);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (size >= endpoints.length || 2 * (size + 1) > table.length) {
+            grow();
+        }
+        final int index = freeCount > 0 ? freeIndices[--freeCount] : limit++;
+        endpoints[index] = endpoint;
+        insertIntoTable(index);
+        size++;
+        return index;
+    }
+
+    /**
+     * Removes {@code endpoint}, making its index available for reuse.
+     *
+     * @return the index that was assigned to {@code endpoint}, or -1 if it was not present.
+     */
+    int remove(final Endpoint endpoint) {
+        final int mask = table.length - 1;
+        int slot = slotFor(endpoint, mask);
+        while (table[slot] != EMPTY && !endpoints[table[slot]].equals(endpoint)) {
+            slot = (slot + 1) & mask;
+        }
+        if (table[slot] == EMPTY) {
+            return -1;
+        }
+        final int index = table[slot];
+        // Backward-shift deletion keeps probe sequences intact without tombstones
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (table[next] != EMPTY) {
+            final int ideal = slotFor(endpoints[table[next]], mask);
+            final boolean canMove = (next > hole) ? (ideal <= hole || ideal > next)
+                                                  : (ideal <= hole && ideal > next);
+            if (canMove) {
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = EMPTY;
+        endpoints[index] = null;
+        freeIndices[freeCount++] = index;
+        size--;
+        return index;
+    }
+
+    /**
+     * Returns the endpoint interned at {@code index}, or null if the index is unused.
+     */
+    @Nullable
+    Endpoint get(final int index) {
+        return endpoints[index];
+    }
+
+    /**
+     * Number of endpoints currently interned.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * An upper bound (exclusive) on the indices currently in use, suitable for sizing arrays indexed by node.
+     */
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * Removes all endpoints. Indices are handed out from zero again afterwards.
+     */
+    void clear() {
+        Arrays.fill(endpoints, 0, limit, null);
+        Arrays.fill(table, EMPTY);
+        freeCount = 0;
+        limit = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns an independent copy of this index that assigns the same indices.
+     */
+    EndpointIndex copy() {
+        return new EndpointIndex(this);
+    }
+
+    private void grow() {
+        final int capacity = endpoints.length * 2;
+        endpoints = Arrays.copyOf(endpoints, capacity);
+        freeIndices = Arrays.copyOf(freeIndices, capacity);
+        table = new int[tableSizeFor(capacity)];
+        Arrays.fill(table, EMPTY);
+        for (int i = 0; i < limit; i++) {
+            if (endpoints[i] != null) {
+                insertIntoTable(i);
+            }
+        }
+    }
+
+    private void insertIntoTable(final int index) {
+        final int mask = table.length - 1;
+        int slot = slotFor(endpoints[index], mask);
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index;
+    }
+
+    private static int slotFor(final Endpoint endpoint, final int mask) {
+        // Protobuf messages memoize their hashCode(), so this does not re-hash the hostname bytes
+        final int h = endpoint.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int tableSizeFor(final int capacity) {
+        return Integer.highestOneBit(capacity - 1) << 2;
+    }
+}
@@ -25,11 +25,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
@@ -51,7 +50,9 @@ class FastPaxos {
     private final Consumer<List<Endpoint>> onDecidedWrapped;
     private final IBroadcaster broadcaster;
     private final Map<List<Endpoint>, AtomicInteger> votesPerProposal = new HashMap<>();
-    private final Set<Endpoint> votesReceived = new HashSet<>(); // Should be a bitset
+    private final NodeIds voters;
+    private final BitSet votesReceived; // indexed by the voter's id in 'voters'
+    private int votesReceivedCount = 0;
     private final Paxos paxos;
     private final ScheduledExecutorService scheduledExecutorService;
     private final Object paxosLock = new Object();
@@ -59,13 +60,16 @@ class FastPaxos {
     @Nullable private ScheduledFuture<?> scheduledClassicRoundTask = null;
     private final ISettings settings;
 
-    FastPaxos(final Endpoint myAddr, final long configurationId, final int membershipSize,
+    FastPaxos(final Endpoint myAddr, final long configurationId, final EndpointIndex members,
               final IMessagingClient client, final IBroadcaster broadcaster,
               final ScheduledExecutorService scheduledExecutorService, final Consumer<List<Endpoint>> onDecide,
               final ISettings settings) {
+        final int membershipSize = members.size();
         this.myAddr = myAddr;
         this.configurationId = configurationId;
         this.membershipSize = membershipSize;
+        this.voters = new NodeIds(members);
+        this.votesReceived = new BitSet(members.limit());
         this.broadcaster = broadcaster;
         this.settings = settings;
 
@@ -83,7 +87,7 @@ class FastPaxos {
             }
             onDecide.accept(hosts);
         };
-        this.paxos = new Paxos(myAddr, configurationId, membershipSize, client, broadcaster, onDecidedWrapped);
+        this.paxos = new Paxos(myAddr, configurationId, members, client, broadcaster, onDecidedWrapped);
     }
 
     /**
@@ -131,19 +135,21 @@ class FastPaxos {
             return;
         }
 
-        if (votesReceived.contains(proposalMessage.getSender())) {
+        final int voter = voters.intern(proposalMessage.getSender());
+        if (votesReceived.get(voter)) {
             return;
         }
 
         if (decided.get()) {
             return;
         }
-        votesReceived.add(proposalMessage.getSender());
+        votesReceived.set(voter);
+        votesReceivedCount++;
         final AtomicInteger proposalsReceived = votesPerProposal.computeIfAbsent(proposalMessage.getEndpointsList(),
                 k -> new AtomicInteger(0));
         final int count = proposalsReceived.incrementAndGet();
         final int F = (int) Math.floor((membershipSize - 1) / 4.0); // Fast Paxos resiliency.
-        if (votesReceived.size() >= membershipSize - F) {
+        if (votesReceivedCount >= membershipSize - F) {
             if (count >= membershipSize - F) {
                 LOG.trace("Decided on a view change: {}", Utils.loggable(proposalMessage.getEndpointsList()));
                 // We have a successful proposal. Consume it.
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.BitSet;
+
+/**
+ * One of the K rings of a MembershipView: the interned indices of all members, sorted by the hash of
+ * their endpoint under the ring's seed. The ring is stored as two parallel primitive arrays, so lookups
+ * are binary searches and a ring of N members costs 12N bytes.
+ *
+ * Instances are immutable. Updates produce a new ring in a single merge pass over the old one.
+ * Ties between equal hashes are broken by comparing the endpoints themselves, which requires the
+ * EndpointIndex that the node indices were drawn from.
+ */
+@Immutable
+final class HashRing {
+    static final HashRing EMPTY = new HashRing(new long[0], new int[0]);
+    private final long[] hashes;
+    private final int[] nodes;
+
+    private HashRing(final long[] hashes, final int[] nodes) {
+        this.hashes = hashes;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Builds a ring out of unsorted arrays. The arrays are sorted in place and owned by the ring afterwards.
+     */
+    static HashRing fromUnsorted(final long[] hashes, final int[] nodes, final EndpointIndex index) {
+        assert hashes.length == nodes.length;
+        sort(hashes, nodes, index);
+        return new HashRing(hashes, nodes);
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the node index at {@code position} on the ring.
+     */
+    int nodeAt(final int position) {
+        return nodes[position];
+    }
+
+    /**
+     * Searches for the node with the given hash and endpoint.
+     *
+     * @return the position of the node if present, or {@code -(insertionPoint + 1)} otherwise, following
+     *         the convention of {@link java.util.Arrays#binarySearch(long[], long)}.
+     */
+    int search(final long hash, final Endpoint endpoint, final EndpointIndex index) {
+        int low = 0;
+        int high = nodes.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            int cmp = Long.compare(hashes[mid], hash);
+            if (cmp == 0) {
+                cmp = compareEndpoints(index.get(nodes[mid]), endpoint);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * The position of the closest node after the hash/endpoint pair, wrapping around. The ring must not be empty.
+     */
+    int successorOf(final long hash, final Endpoint endpoint, final EndpointIndex index) {
+        final int position = search(hash, endpoint, index);
+        final int next = position >= 0 ? position + 1 : -(position + 1);
+        return next == nodes.length ? 0 : next;
+    }
+
+    /**
+     * The position of the closest node before the hash/endpoint pair, wrapping around. The ring must not be empty.
+     */
+    int predecessorOf(final long hash, final Endpoint endpoint, final EndpointIndex index) {
+        final int position = search(hash, endpoint, index);
+        final int base = position >= 0 ? position : -(position + 1);
+        return base == 0 ? nodes.length - 1 : base - 1;
+    }
+
+    /**
+     * Produces a new ring with {@code removed} nodes dropped and the given nodes added, in one merge pass.
+     *
+     * @param addedHashes hashes of the nodes to add on this ring
+     * @param addedNodes indices of the nodes to add, in the same order as {@code addedHashes}. Neither array
+     *                   needs to be sorted, and both may be reordered by this call.
+     * @param removed the indices of nodes to remove
+     * @param index the index that maps node indices of both old and new members to endpoints
+     */
+    HashRing update(final long[] addedHashes, final int[] addedNodes, final BitSet removed,
+                    final EndpointIndex index) {
+        assert addedHashes.length == addedNodes.length;
+        sort(addedHashes, addedNodes, index);
+        int remaining = nodes.length;
+        for (final int node : nodes) {
+            if (removed.get(node)) {
+                remaining--;
+            }
+        }
+        final int newSize = remaining + addedNodes.length;
+        final long[] newHashes = new long[newSize];
+        final int[] newNodes = new int[newSize];
+        int existing = 0;
+        int added = 0;
+        int out = 0;
+        while (existing < nodes.length || added < addedNodes.length) {
+            if (existing < nodes.length && removed.get(nodes[existing])) {
+                existing++;
+                continue;
+            }
+            final boolean takeExisting = added == addedNodes.length
+                    || (existing < nodes.length && compare(hashes[existing], nodes[existing],
+                                                           addedHashes[added], addedNodes[added], index) <= 0);
+            if (takeExisting) {
+                newHashes[out] = hashes[existing];
+                newNodes[out++] = nodes[existing++];
+            } else {
+                newHashes[out] = addedHashes[added];
+                newNodes[out++] = addedNodes[added++];
+            }
+        }
+        assert out == newSize;
+        return new HashRing(newHashes, newNodes);
+    }
+
+    /**
+     * Sorts the parallel arrays by (hash, endpoint) using an in-place heapsort, avoiding any boxing.
+     */
+    static void sort(final long[] hashes, final int[] nodes, final EndpointIndex index) {
+        final int n = nodes.length;
+        for (int root = n / 2 - 1; root >= 0; root--) {
+            siftDown(hashes, nodes, root, n, index);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(hashes, nodes, 0, end);
+            siftDown(hashes, nodes, 0, end, index);
+        }
+    }
+
+    private static void siftDown(final long[] hashes, final int[] nodes, final int start, final int end,
+                                 final EndpointIndex index) {
+        int root = start;
+        while (2 * root + 1 < end) {
+            int child = 2 * root + 1;
+            if (child + 1 < end && compare(hashes[child], nodes[child], hashes[child + 1], nodes[child + 1],
+                                           index) < 0) {
+                child++;
+            }
+            if (compare(hashes[root], nodes[root], hashes[child], nodes[child], index) >= 0) {
+                return;
+            }
+            swap(hashes, nodes, root, child);
+            root = child;
+        }
+    }
+
+    private static void swap(final long[] hashes, final int[] nodes, final int a, final int b) {
+        final long hash = hashes[a];
+        hashes[a] = hashes[b];
+        hashes[b] = hash;
+        final int node = nodes[a];
+        nodes[a] = nodes[b];
+        nodes[b] = node;
+    }
+
+    private static int compare(final long hash1, final int node1, final long hash2, final int node2,
+                               final EndpointIndex index) {
+        final int cmp = Long.compare(hash1, hash2);
+        if (cmp != 0 || node1 == node2) {
+            return cmp;
+        }
+        return compareEndpoints(index.get(node1), index.get(node2));
+    }
+
+    /**
+     * A total order on endpoints used to break hash ties deterministically across processes.
+     */
+    static int compareEndpoints(final Endpoint e1, final Endpoint e2) {
+        final int length1 = e1.getHostname().size();
+        final int length2 = e2.getHostname().size();
+        for (int i = 0; i < Math.min(length1, length2); i++) {
+            final int cmp = Integer.compare(e1.getHostname().byteAt(i) & 0xff, e2.getHostname().byteAt(i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        final int cmp = Integer.compare(length1, length2);
+        return cmp != 0 ? cmp : Integer.compare(e1.getPort(), e2.getPort());
+    }
+}
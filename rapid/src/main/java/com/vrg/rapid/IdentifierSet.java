@@ -0,0 +1,224 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.vrg.rapid.pb.NodeId;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The history of node identifiers seen by a membership view. Identifiers are kept as (high, low) pairs in
+ * a single sorted long[], so a set of n identifiers costs 16n bytes and lookups are binary searches.
+ *
+ * The set is shipped to joiners in a delta-encoded form (see {@link #encode()}): since the pairs are sorted,
+ * consecutive high words are written as varint deltas. Random identifiers take about 16 bytes each in this
+ * form, against about 23.5 bytes as repeated NodeId messages. That is close to the entropy of a set of random
+ * identifiers, so no encoding does much better. Nothing is ever removed from the set: it grows by one pair
+ * per join over the lifetime of the cluster, and so do join responses.
+ */
+@NotThreadSafe
+final class IdentifierSet {
+    private long[] pairs; // pairs[2i] is the high word and pairs[2i + 1] the low word of the i'th identifier
+    private int size = 0;
+
+    IdentifierSet() {
+        this.pairs = new long[16];
+    }
+
+    private IdentifierSet(final long[] pairs, final int size) {
+        this.pairs = pairs;
+        this.size = size;
+    }
+
+    /**
+     * Builds a set from identifiers in any order, ignoring duplicates.
+     */
+    static IdentifierSet of(final Collection<NodeId> identifiers) {
+        final IdentifierSet set = new IdentifierSet();
+        identifiers.stream()
+                   .sorted(IdentifierSet::compare)
+                   .forEach(id -> set.appendIfGreater(id.getHigh(), id.getLow()));
+        return set;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(final NodeId identifier) {
+        return search(identifier.getHigh(), identifier.getLow()) >= 0;
+    }
+
+    /**
+     * Adds {@code identifier} to the set.
+     *
+     * @return true if the identifier was not already present.
+     */
+    boolean add(final NodeId identifier) {
+        final long high = identifier.getHigh();
+        final long low = identifier.getLow();
+        final int position = search(high, low);
+        if (position >= 0) {
+            return false;
+        }
+        final int insertAt = -(position + 1);
+        ensureCapacity(size + 1);
+        System.arraycopy(pairs, 2 * insertAt, pairs, 2 * insertAt + 2, 2 * (size - insertAt));
+        pairs[2 * insertAt] = high;
+        pairs[2 * insertAt + 1] = low;
+        size++;
+        return true;
+    }
+
+    long highAt(final int index) {
+        return pairs[2 * index];
+    }
+
+    long lowAt(final int index) {
+        return pairs[2 * index + 1];
+    }
+
+    /**
+     * Returns an independent copy of this set.
+     */
+    IdentifierSet copy() {
+        return new IdentifierSet(Arrays.copyOf(pairs, Math.max(2, 2 * size)), size);
+    }
+
+    /**
+     * Materializes the identifiers as protobuf objects, in sorted order.
+     */
+    List<NodeId> toList() {
+        final List<NodeId> identifiers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            identifiers.add(NodeId.newBuilder().setHigh(highAt(i)).setLow(lowAt(i)).build());
+        }
+        return identifiers;
+    }
+
+    /**
+     * Encodes the set as a count followed by one entry per identifier, in sorted order. Each entry is the
+     * difference from the previous high word as an unsigned varint, followed by the low word: as a varint
+     * delta when the high words are equal, and as a fixed64 otherwise, since unrelated low words are random.
+     */
+    ByteString encode() {
+        final ByteString.Output output = ByteString.newOutput(4 + 12 * size);
+        final CodedOutputStream coded = CodedOutputStream.newInstance(output);
+        try {
+            coded.writeUInt32NoTag(size);
+            long previousHigh = Long.MIN_VALUE;
+            long previousLow = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                final long high = highAt(i);
+                final long low = lowAt(i);
+                coded.writeUInt64NoTag(high - previousHigh);
+                if (high == previousHigh) {
+                    coded.writeUInt64NoTag(low - previousLow);
+                } else {
+                    coded.writeFixed64NoTag(low);
+                }
+                previousHigh = high;
+                previousLow = low;
+            }
+            coded.flush();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteString();
+    }
+
+    /**
+     * Decodes a set written by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if {@code encoded} is malformed.
+     */
+    static IdentifierSet decode(final ByteString encoded) {
+        final CodedInputStream coded = encoded.newCodedInput();
+        try {
+            final int count = coded.readUInt32();
+            if (count < 0 || count > encoded.size()) {
+                throw new IllegalArgumentException("Invalid identifier count: " + count);
+            }
+            final IdentifierSet set = new IdentifierSet(new long[Math.max(2, 2 * count)], 0);
+            long previousHigh = Long.MIN_VALUE;
+            long previousLow = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                final long high = previousHigh + coded.readUInt64();
+                final long low = (high == previousHigh) ? previousLow + coded.readUInt64() : coded.readFixed64();
+                if (i > 0 && compare(previousHigh, previousLow, high, low) >= 0) {
+                    throw new IllegalArgumentException("Identifiers are not in sorted order");
+                }
+                set.pairs[2 * i] = high;
+                set.pairs[2 * i + 1] = low;
+                set.size++;
+                previousHigh = high;
+                previousLow = low;
+            }
+            return set;
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Malformed identifier set", e);
+        }
+    }
+
+    private int search(final long high, final long low) {
+        int lowIndex = 0;
+        int highIndex = size - 1;
+        while (lowIndex <= highIndex) {
+            final int mid = (lowIndex + highIndex) >>> 1;
+            final int cmp = compare(pairs[2 * mid], pairs[2 * mid + 1], high, low);
+            if (cmp < 0) {
+                lowIndex = mid + 1;
+            } else if (cmp > 0) {
+                highIndex = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lowIndex + 1);
+    }
+
+    private void appendIfGreater(final long high, final long low) {
+        if (size > 0 && compare(highAt(size - 1), lowAt(size - 1), high, low) >= 0) {
+            return;
+        }
+        ensureCapacity(size + 1);
+        pairs[2 * size] = high;
+        pairs[2 * size + 1] = low;
+        size++;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (2 * capacity > pairs.length) {
+            pairs = Arrays.copyOf(pairs, Math.max(2 * capacity, 2 * pairs.length));
+        }
+    }
+
+    private static int compare(final NodeId o1, final NodeId o2) {
+        return compare(o1.getHigh(), o1.getLow(), o2.getHigh(), o2.getLow());
+    }
+
+    private static int compare(final long high1, final long low1, final long high2, final long low2) {
+        final int cmp = Long.compare(high1, high2);
+        return cmp != 0 ? cmp : Long.compare(low1, low2);
+    }
+}
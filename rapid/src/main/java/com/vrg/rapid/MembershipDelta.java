@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+
+import java.util.List;
+
+/**
+ * A change of the membership, as published by MembershipDeltaPublisher. A consumer applies the removals
+ * before the additions. A snapshot lists every member of the configuration as added, and replaces whatever
+ * state the consumer held before.
+ */
+public final class MembershipDelta {
+    private final long configurationId;
+    private final List<Endpoint> added;
+    private final List<Endpoint> removed;
+    private final boolean isSnapshot;
+
+    MembershipDelta(final long configurationId, final List<Endpoint> added, final List<Endpoint> removed,
+                    final boolean isSnapshot) {
+        this.configurationId = configurationId;
+        this.added = added;
+        this.removed = removed;
+        this.isSnapshot = isSnapshot;
+    }
+
+    /**
+     * @return the configuration ID of the membership after this change
+     */
+    public long getConfigurationId() {
+        return configurationId;
+    }
+
+    /**
+     * @return the nodes that joined, or every member if this is a snapshot
+     */
+    public List<Endpoint> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the nodes that left or were removed
+     */
+    public List<Endpoint> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if this is the full membership rather than a change to the previous one
+     */
+    public boolean isSnapshot() {
+        return isSnapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "MembershipDelta{" +
+                "configurationId=" + configurationId +
+                ", added=" + added +
+                ", removed=" + removed +
+                ", isSnapshot=" + isSnapshot +
+                '}';
+    }
+}
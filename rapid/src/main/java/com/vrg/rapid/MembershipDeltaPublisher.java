@@ -0,0 +1,312 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+import io.grpc.ExperimentalApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Publishes membership changes as deltas, with back-pressure. A new subscriber first receives a snapshot
+ * of the membership, and then one MembershipDelta per view change. Each event costs O(changed nodes) rather
+ * than O(cluster size).
+ *
+ * A subscriber receives no more deltas than it requested. View changes that happen while it has no
+ * outstanding demand are merged into a single pending delta, so a slow subscriber needs a bounded amount
+ * of memory and catches up with one delta. A subscriber can also ask for a fresh snapshot at any time.
+ *
+ * The publisher and its Subscriber and Subscription interfaces follow java.util.concurrent.Flow, which
+ * is not available on Java 8, so that they can be adapted to it or to Reactive Streams without loss.
+ */
+@ExperimentalApi
+@ThreadSafe
+public final class MembershipDeltaPublisher {
+    private static final Logger LOG = LoggerFactory.getLogger(MembershipDeltaPublisher.class);
+    private final Executor executor;
+    private final Supplier<MembershipDelta> snapshotSupplier;
+    private final List<DeltaSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Receives the deltas of a MembershipDeltaPublisher. Signals to a subscriber are never concurrent.
+     */
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(MembershipDelta delta);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Links a subscriber to the publisher.
+     */
+    public interface Subscription {
+        /**
+         * Adds {@code n} deltas to the demand of the subscriber.
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of deltas to the subscriber.
+         */
+        void cancel();
+
+        /**
+         * Makes the next delta delivered a snapshot of the current membership.
+         */
+        void requestSnapshot();
+    }
+
+    /**
+     * @param executor runs the delivery of deltas to subscribers
+     * @param snapshotSupplier the current membership as a snapshot
+     */
+    MembershipDeltaPublisher(final Executor executor, final Supplier<MembershipDelta> snapshotSupplier) {
+        this.executor = executor;
+        this.snapshotSupplier = snapshotSupplier;
+    }
+
+    /**
+     * Adds a subscriber. Its onSubscribe() is invoked asynchronously. A subscriber added after the cluster
+     * has shut down is completed right away, on the calling thread.
+     */
+    public void subscribe(final Subscriber subscriber) {
+        final DeltaSubscription subscription = new DeltaSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscription.schedule();
+    }
+
+    /**
+     * Invoked by MembershipService after every view change.
+     */
+    void onViewChange(final long configurationId, final Collection<Endpoint> added,
+                      final Collection<Endpoint> removed) {
+        for (final DeltaSubscription subscription : subscriptions) {
+            subscription.onViewChange(configurationId, added, removed);
+        }
+    }
+
+    /**
+     * Completes all subscriptions.
+     */
+    void shutdown() {
+        for (final DeltaSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    private final class DeltaSubscription implements Subscription, Runnable {
+        private final Subscriber subscriber;
+        @GuardedBy("this") private long demand = 0;
+        @GuardedBy("this") private boolean isSubscribed = false;
+        @GuardedBy("this") private boolean isCancelled = false;
+        @GuardedBy("this") private boolean isCompleted = false;
+        @GuardedBy("this") @Nullable private Throwable error = null;
+        @GuardedBy("this") private boolean isSnapshotPending = true;
+        @GuardedBy("this") private boolean isDeltaPending = false;
+        @GuardedBy("this") private final Set<Endpoint> pendingAdded = new LinkedHashSet<>();
+        @GuardedBy("this") private final Set<Endpoint> pendingRemoved = new LinkedHashSet<>();
+        // The configuration that the subscriber will have reached once everything pending is delivered
+        @GuardedBy("this") private long lastConfigurationId;
+        // Whether run() is submitted to the executor
+        @GuardedBy("this") private boolean isScheduled = false;
+
+        DeltaSubscription(final Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            synchronized (this) {
+                if (isCancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Demand must be positive: " + n);
+                } else {
+                    // Demand saturates at Long.MAX_VALUE, which means unbounded
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                isCancelled = true;
+                pendingAdded.clear();
+                pendingRemoved.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        @Override
+        public void requestSnapshot() {
+            synchronized (this) {
+                isSnapshotPending = true;
+            }
+            schedule();
+        }
+
+        void onViewChange(final long configurationId, final Collection<Endpoint> added,
+                          final Collection<Endpoint> removed) {
+            synchronized (this) {
+                // A snapshot may have been taken after the view changed, but before this delta was published
+                if (isCancelled || configurationId == lastConfigurationId) {
+                    return;
+                }
+                for (final Endpoint node : removed) {
+                    // A node that joins and leaves again before the subscriber hears of it is not reported
+                    if (!pendingAdded.remove(node)) {
+                        pendingRemoved.add(node);
+                    }
+                }
+                // A node that leaves and rejoins is reported as both removed and added
+                pendingAdded.addAll(added);
+                lastConfigurationId = configurationId;
+                isDeltaPending = true;
+            }
+            schedule();
+        }
+
+        void complete() {
+            synchronized (this) {
+                isCompleted = true;
+            }
+            schedule();
+        }
+
+        void schedule() {
+            synchronized (this) {
+                if (isScheduled || isCancelled) {
+                    return;
+                }
+                isScheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (final RejectedExecutionException e) {
+                // The executor is shut down along with the cluster: complete the subscriber on this thread,
+                // without delivering anything else. isScheduled is still set, so this run is not concurrent
+                // with any other, and it resets isScheduled when done.
+                synchronized (this) {
+                    isCompleted = true;
+                    isSnapshotPending = false;
+                    isDeltaPending = false;
+                }
+                run();
+            }
+        }
+
+        /**
+         * Delivers signals to the subscriber. Only one run() is in progress at a time.
+         */
+        @Override
+        @SuppressWarnings("checkstyle:illegalcatch")
+        public void run() {
+            final boolean isFirstRun;
+            synchronized (this) {
+                isFirstRun = !isSubscribed;
+                isSubscribed = true;
+            }
+            if (isFirstRun) {
+                try {
+                    subscriber.onSubscribe(this);
+                } catch (final RuntimeException e) {
+                    LOG.error("Membership delta subscriber threw an exception, cancelling its subscription", e);
+                    cancel();
+                }
+            }
+            while (true) {
+                final MembershipDelta next;
+                final Throwable failure;
+                final boolean isDone;
+                synchronized (this) {
+                    if (isCancelled) {
+                        isScheduled = false;
+                        return;
+                    }
+                    failure = error;
+                    next = failure == null && demand > 0 ? nextDelta() : null;
+                    isDone = failure != null || (next == null && isCompleted);
+                    if (next == null) {
+                        isScheduled = false;
+                        isCancelled = isDone;
+                    } else if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                }
+                if (next == null) {
+                    if (isDone) {
+                        subscriptions.remove(this);
+                        if (failure != null) {
+                            subscriber.onError(failure);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                    return;
+                }
+                try {
+                    subscriber.onNext(next);
+                } catch (final RuntimeException e) {
+                    LOG.error("Membership delta subscriber threw an exception, cancelling its subscription", e);
+                    cancel();
+                }
+            }
+        }
+
+        @GuardedBy("this")
+        @Nullable
+        private MembershipDelta nextDelta() {
+            if (isSnapshotPending) {
+                final MembershipDelta snapshot = snapshotSupplier.get();
+                isSnapshotPending = false;
+                isDeltaPending = false;
+                pendingAdded.clear();
+                pendingRemoved.clear();
+                lastConfigurationId = snapshot.getConfigurationId();
+                return snapshot;
+            }
+            if (!isDeltaPending) {
+                return null;
+            }
+            final MembershipDelta delta = new MembershipDelta(lastConfigurationId,
+                    Collections.unmodifiableList(new ArrayList<>(pendingAdded)),
+                    Collections.unmodifiableList(new ArrayList<>(pendingRemoved)), false);
+            isDeltaPending = false;
+            pendingAdded.clear();
+            pendingRemoved.clear();
+            return delta;
+        }
+    }
+}
@@ -13,8 +13,10 @@
 
 package com.vrg.rapid;
 
+import com.google.common.base.Suppliers;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.vrg.rapid.messaging.IBroadcaster;
 import com.vrg.rapid.messaging.IMessagingClient;
@@ -29,6 +31,7 @@ import com.vrg.rapid.pb.JoinStatusCode;
 import com.vrg.rapid.pb.LeaveMessage;
 import com.vrg.rapid.pb.Metadata;
 import com.vrg.rapid.pb.NodeId;
+import com.vrg.rapid.pb.NodeStatus;
 import com.vrg.rapid.pb.PreJoinMessage;
 import com.vrg.rapid.pb.ProbeMessage;
 import com.vrg.rapid.pb.ProbeResponse;
@@ -37,28 +40,26 @@ import com.vrg.rapid.pb.RapidResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -73,39 +74,55 @@ import java.util.stream.Stream;
 public final class MembershipService {
     private static final Logger LOG = LoggerFactory.getLogger(MembershipService.class);
     static final int BATCHING_WINDOW_IN_MS = 100;
-    private static final int DEFAULT_FAILURE_DETECTOR_INITIAL_DELAY_IN_MS = 0;
+    static final int DEFAULT_MAX_ALERT_BATCH_SIZE = 4096;
+    static final int DEFAULT_MAX_ALERT_BATCH_DELAY_IN_MS = 500;
     static final int DEFAULT_FAILURE_DETECTOR_INTERVAL_IN_MS = 1000;
+    // When positive, alert batches are relayed through this many random members instead of being sent to
+    // every member. Zero keeps the all-to-all broadcast.
+    static final int DEFAULT_ALERT_RELAY_FANOUT = 0;
     private static final int LEAVE_MESSAGE_TIMEOUT = 1500;
+    // Response to alert batches made only of alerts we have already received, which need no processing
+    private static final ListenableFuture<RapidResponse> DEFAULT_RESPONSE =
+            Futures.immediateFuture(RapidResponse.getDefaultInstance());
+    private static final RapidResponse UNREACHABLE_RESPONSE = Utils.toRapidResponse(
+            ProbeResponse.newBuilder().setStatus(NodeStatus.UNREACHABLE).build());
+    private static final ListenableFuture<RapidResponse> UNREACHABLE_RESPONSE_FUTURE =
+            Futures.immediateFuture(UNREACHABLE_RESPONSE);
+    // Alert batches at least this large are validated in parallel
+    private static final int PARALLEL_VALIDATION_THRESHOLD = 256;
     private final MembershipView membershipView;
     private final MultiNodeCutDetector cutDetection;
     private final Endpoint myAddr;
     private final IBroadcaster broadcaster;
+    private final IBroadcaster alertBroadcaster;
     private final Map<Endpoint, LinkedBlockingDeque<SettableFuture<RapidResponse>>> joinersToRespondTo =
             new HashMap<>();
     private final Map<Endpoint, NodeId> joinerUuid = new HashMap<>();
     private final Map<Endpoint, Metadata> joinerMetadata = new HashMap<>();
     private final IMessagingClient messagingClient;
     private final MetadataManager metadataManager;
+    private final AlertFilter alertFilter = new AlertFilter();
+    // Probe sent to the target of an indirect probe, built once since it only carries our address
+    private final RapidRequest indirectProbeRequest;
 
     // Event subscriptions
-    private final Map<ClusterEvents, List<Consumer<ClusterStatusChange>>> subscriptions;
+    private final SubscriptionDispatcher subscriptions;
+    private final MembershipDeltaPublisher deltaPublisher;
 
     //
     private FastPaxos fastPaxosInstance;
 
-    // Fields used by batching logic.
-    @GuardedBy("batchSchedulerLock")
-    private long lastEnqueueTimestamp = -1;    // Timestamp
-    @GuardedBy("batchSchedulerLock")
-    private final LinkedBlockingQueue<AlertMessage> sendQueue = new LinkedBlockingQueue<>();
-    private final Lock batchSchedulerLock = new ReentrantLock();
     private final ScheduledExecutorService backgroundTasksExecutor;
-    private final ScheduledFuture<?> alertBatcherJob;
-    private final List<ScheduledFuture<?>> failureDetectorJobs;
+    private final AlertBatcher alertBatcher;
+    private final ProbeScheduler probeScheduler;
     private final SharedResources sharedResources;
 
     // Failure detector
     private final IEdgeFailureDetectorFactory fdFactory;
+    // Failure detectors by subject, kept across view changes for as long as we monitor the subject
+    private final Map<Endpoint, Runnable> failureDetectors = new HashMap<>();
+    // Subjects whose failure detectors have notified us, and need a fresh detector in the next configuration
+    private final Set<Endpoint> notifiedSubjects = ConcurrentHashMap.newKeySet();
 
     // Fields used by consensus protocol
     private boolean announcedProposal = false;
@@ -127,6 +144,7 @@ public final class MembershipService {
                       final IEdgeFailureDetectorFactory edgeFailureDetector, final Map<Endpoint, Metadata> metadataMap,
                       final Map<ClusterEvents, List<Consumer<ClusterStatusChange>>> subscriptions) {
         this.myAddr = myAddr;
+        this.indirectProbeRequest = Utils.toRapidRequest(ProbeMessage.newBuilder().setSender(myAddr).build());
         this.settings = settings;
         this.membershipView = membershipView;
         this.cutDetection = cutDetection;
@@ -135,43 +153,58 @@ public final class MembershipService {
         this.metadataManager.addMetadata(metadataMap);
         this.messagingClient = messagingClient;
         this.broadcaster = new UnicastToAllBroadcaster(messagingClient);
-        this.subscriptions = subscriptions;
+        this.alertBroadcaster = settings.getAlertRelayFanout() > 0
+                ? new RelayBroadcaster(messagingClient, myAddr, settings.getAlertRelayFanout())
+                : this.broadcaster;
+        this.subscriptions = new SubscriptionDispatcher(sharedResources.getSubscriptionExecutor(),
+                                                        settings.getCoalesceViewChanges());
+        subscriptions.forEach((event, callbacks) -> callbacks.forEach(cb -> this.subscriptions.register(event, cb)));
+        this.deltaPublisher = new MembershipDeltaPublisher(sharedResources.getSubscriptionExecutor(),
+                                                           this::getMembershipSnapshotAsDelta);
         this.fdFactory = edgeFailureDetector;
 
-        // Make sure there is an empty list for every enum type
-        Arrays.stream(ClusterEvents.values()).forEach(event ->
-                this.subscriptions.computeIfAbsent(event, k -> new ArrayList<>(0)));
-
         // Schedule background jobs
         this.backgroundTasksExecutor = sharedResources.getScheduledTasksExecutor();
-        alertBatcherJob = this.backgroundTasksExecutor.scheduleAtFixedRate(new AlertBatcher(),
-                0, settings.getBatchingWindowInMs(), TimeUnit.MILLISECONDS);
+        this.alertBatcher = new AlertBatcher(this.backgroundTasksExecutor, this::broadcastAlertBatch,
+                settings.getMaxAlertBatchSize(), settings.getBatchingWindowInMs(),
+                settings.getMaxAlertBatchDelayInMs());
 
         this.broadcaster.setMembership(membershipView.getRing(0));
+        if (alertBroadcaster != broadcaster) {
+            this.alertBroadcaster.setMembership(membershipView.getRing(0));
+        }
         // this::edgeFailureNotification is invoked by the failure detector whenever an edge
         // to an observer is marked faulty.
-        this.failureDetectorJobs = new ArrayList<>();
-
-        // Prepare consensus instance
-        this.fastPaxosInstance = new FastPaxos(myAddr, membershipView.getCurrentConfigurationId(),
-                                               membershipView.getMembershipSize(), this.messagingClient,
+        this.probeScheduler = new ProbeScheduler(this.backgroundTasksExecutor,
+                                                 settings.getFailureDetectorIntervalInMs());
+
+        // Prepare consensus and cut detection for the current configuration. Both index their state by the
+        // snapshot's interning table of members.
+        final MembershipSnapshot snapshot = membershipView.getSnapshot();
+        this.cutDetection.clear(snapshot.getNodeIndex());
+        this.fastPaxosInstance = new FastPaxos(myAddr, snapshot.getConfigurationId(),
+                                               snapshot.getNodeIndex(), this.messagingClient,
                                                this.broadcaster, this.backgroundTasksExecutor, this::decideViewChange,
                 this.settings);
         createFailureDetectorsForCurrentConfiguration();
 
         // Execute all VIEW_CHANGE callbacks. This informs applications that a start/join has successfully completed.
-        final long configurationId = membershipView.getCurrentConfigurationId();
-        final List<Endpoint> currentMembership = membershipView.getRing(0);
-        final List<NodeStatusChange> nodeStatusChanges = getInitialViewChange();
-        final ClusterStatusChange clusterStatusChange = new ClusterStatusChange(configurationId, currentMembership,
-                                                                                nodeStatusChanges);
-        subscriptions.get(ClusterEvents.VIEW_CHANGE).forEach(cb -> cb.accept(clusterStatusChange));
+        this.subscriptions.publish(ClusterEvents.VIEW_CHANGE, () ->
+                new ClusterStatusChange(membershipView.getCurrentConfigurationId(), membershipView.getRing(0),
+                                        getInitialViewChange()));
     }
 
     /**
      * Entry point for all messages.
+     *
+     * Every request that the protocol thread processes gets a response future of its own, which is completed
+     * once the protocol thread has run the task. The messaging layer needs a future per request to reply on,
+     * and callers rely on it completing only after their request has been applied.
      */
     public ListenableFuture<RapidResponse> handleMessage(final RapidRequest msg) {
+        if (msg.getContentCase() != RapidRequest.ContentCase.CONTENT_NOT_SET) {
+            sharedResources.getPeerActivityTracker().recordActivity(senderOf(msg));
+        }
         switch (msg.getContentCase()) {
             case PREJOINMESSAGE:
                 return handleMessage(msg.getPreJoinMessage());
@@ -195,6 +228,37 @@ public final class MembershipService {
         }
     }
 
+    /**
+     * Every request carries its sender, in a field of the message type.
+     */
+    private static Endpoint senderOf(final RapidRequest msg) {
+        switch (msg.getContentCase()) {
+            case PREJOINMESSAGE:
+                return msg.getPreJoinMessage().getSender();
+            case JOINMESSAGE:
+                return msg.getJoinMessage().getSender();
+            case BATCHEDALERTMESSAGE:
+                return msg.getBatchedAlertMessage().getSender();
+            case PROBEMESSAGE:
+                return msg.getProbeMessage().getSender();
+            case FASTROUNDPHASE2BMESSAGE:
+                return msg.getFastRoundPhase2BMessage().getSender();
+            case PHASE1AMESSAGE:
+                return msg.getPhase1AMessage().getSender();
+            case PHASE1BMESSAGE:
+                return msg.getPhase1BMessage().getSender();
+            case PHASE2AMESSAGE:
+                return msg.getPhase2AMessage().getSender();
+            case PHASE2BMESSAGE:
+                return msg.getPhase2BMessage().getSender();
+            case LEAVEMESSAGE:
+                return msg.getLeaveMessage().getSender();
+            case CONTENT_NOT_SET:
+            default:
+                throw new IllegalArgumentException("Unidentified RapidRequest type " + msg.getContentCase());
+        }
+    }
+
     /**
      * This is invoked by a new node joining the network at a seed node.
      * The seed responds with the current configuration ID and a list of observers
@@ -273,7 +337,7 @@ public final class MembershipService {
                     // tell the sender that they're safe to join.
                     responseBuilder = responseBuilder.setStatusCode(JoinStatusCode.SAFE_TO_JOIN)
                             .addAllEndpoints(configuration.endpoints)
-                            .addAllIdentifiers(configuration.nodeIds)
+                            .setPackedIdentifiers(configuration.identifiers.encode())
                             .addAllMetadataKeys(metadataManager.getAllMetadata().keySet())
                             .addAllMetadataValues(metadataManager.getAllMetadata().values());
                 } else {
@@ -299,56 +363,64 @@ public final class MembershipService {
      */
     private ListenableFuture<RapidResponse> handleMessage(final BatchedAlertMessage messageBatch) {
         Objects.requireNonNull(messageBatch);
-        final SettableFuture<RapidResponse> future = SettableFuture.create();
 
-        sharedResources.getProtocolExecutor().execute(() -> {
-            // first, retain all valid alerts
-            // this includes adding the UUIDs and metadata of joining nodes
-            final long currentConfigurationId = membershipView.getCurrentConfigurationId();
-            final int membershipSize = membershipView.getMembershipSize();
-            final Stream<AlertMessage> validAlerts = messageBatch.getMessagesList().stream()
-                // First, we filter out invalid messages that violate membership invariants.
-                .filter(msg -> filterAlertMessages(messageBatch, msg, membershipSize, currentConfigurationId))
-                // For valid UP alerts, extract the joiner details (UUID and metadata) which is going to be needed
-                // when the node is added to the rings
-                .map(this::extractJoinerUuidAndMetadata);
+        // Drop copies of alerts we have already received in this configuration on the calling thread,
+        // without a hop to the protocol executor if nothing is left.
+        final List<AlertMessage> messages = alertFilter.retainUnseen(messageBatch.getMessagesList(),
+                                                                     membershipView.getCurrentConfigurationId());
+        if (messages.isEmpty()) {
+            return DEFAULT_RESPONSE;
+        }
+        // In relay mode, alerts reach us from a few peers only, so forward the new ones along with ours
+        if (alertBroadcaster != broadcaster && !messageBatch.getSender().equals(myAddr)) {
+            relayAlertMessages(messages, membershipView.getCurrentConfigurationId());
+        }
 
+        final SettableFuture<RapidResponse> future = SettableFuture.create();
+        sharedResources.getProtocolExecutor().execute(() -> {
             // We already have a proposal for this round
             // => we have initiated consensus and cannot go back on our proposal.
             if (announcedProposal) {
                 future.set(RapidResponse.getDefaultInstance());
-            } else {
-                // We now apply all the valid messages into our condition detector
-                // to obtain a view change proposal
-                final Set<Endpoint> proposal =
-                        validAlerts
-                                .map(cutDetection::aggregateForProposal)
-                                .flatMap(List::stream)
-                                .collect(Collectors.toSet());
-
-                // Lastly, we apply implicit detections
-                proposal.addAll(cutDetection.invalidateFailingEdges(membershipView));
-
-                // If we have a proposal for this stage, start an instance of consensus on it.
-                if (!proposal.isEmpty()) {
-                    LOG.info("Proposing membership change of size {}", proposal.size());
-                    announcedProposal = true;
-
-                    if (subscriptions.containsKey(ClusterEvents.VIEW_CHANGE_PROPOSAL)) {
-                        final List<NodeStatusChange> result = createNodeStatusChangeList(proposal);
-                        final List<Endpoint> currentMembership = membershipView.getRing(0);
-                        final ClusterStatusChange clusterStatusChange = new ClusterStatusChange(currentConfigurationId,
-                                                                                             currentMembership, result);
-                        // Inform subscribers that a proposal has been announced.
-                        subscriptions.get(ClusterEvents.VIEW_CHANGE_PROPOSAL)
-                                .forEach(cb -> cb.accept(clusterStatusChange));
-                    }
-                    fastPaxosInstance.propose(new ArrayList<>(proposal.stream()
-                            .sorted(membershipView.getRingZeroComparator())
-                            .collect(Collectors.toList())));
-                }
-                future.set(RapidResponse.getDefaultInstance());
+                return;
+            }
+
+            // first, retain all valid alerts. Validation only reads an immutable snapshot of the view,
+            // so large batches are validated across cores.
+            final MembershipSnapshot snapshot = membershipView.getSnapshot();
+            final long currentConfigurationId = snapshot.getConfigurationId();
+            final Stream<AlertMessage> messageStream = messages.size() >= PARALLEL_VALIDATION_THRESHOLD
+                                                       ? messages.parallelStream() : messages.stream();
+            final List<AlertMessage> validAlerts = messageStream
+                // First, we filter out invalid messages that violate membership invariants.
+                .filter(msg -> filterAlertMessages(messageBatch, msg, snapshot))
+                .collect(Collectors.toList());
+            // For valid UP alerts, extract the joiner details (UUID and metadata) which is going to be needed
+            // when the node is added to the rings
+            validAlerts.forEach(this::extractJoinerUuidAndMetadata);
+
+            // We now apply all the valid messages into our condition detector to obtain a view change
+            // proposal. The detector aggregates reports per subject across cores and then evaluates
+            // the proposal condition once for the batch.
+            final Set<Endpoint> proposal = new HashSet<>(cutDetection.aggregateForProposal(validAlerts));
+
+            // Lastly, we apply implicit detections
+            proposal.addAll(cutDetection.invalidateFailingEdges(membershipView));
+
+            // If we have a proposal for this stage, start an instance of consensus on it.
+            if (!proposal.isEmpty()) {
+                LOG.info("Proposing membership change of size {}", proposal.size());
+                announcedProposal = true;
+
+                // Inform subscribers that a proposal has been announced.
+                subscriptions.publish(ClusterEvents.VIEW_CHANGE_PROPOSAL, () ->
+                        new ClusterStatusChange(currentConfigurationId, snapshot.getRing(0),
+                                                createNodeStatusChangeList(proposal)));
+                fastPaxosInstance.propose(new ArrayList<>(proposal.stream()
+                        .sorted(membershipView.getRingZeroComparator())
+                        .collect(Collectors.toList())));
             }
+            future.set(RapidResponse.getDefaultInstance());
         });
         return future;
     }
@@ -372,7 +444,8 @@ public final class MembershipService {
     private ListenableFuture<RapidResponse> handleLeaveMessage(final RapidRequest request) {
         final SettableFuture<RapidResponse> future = SettableFuture.create();
         edgeFailureNotification(request.getLeaveMessage().getSender(), membershipView.getCurrentConfigurationId());
-        future.set(RapidResponse.getDefaultInstance());
+        // The protocol executor runs tasks in order, so this completes once the notification is queued
+        sharedResources.getProtocolExecutor().execute(() -> future.set(RapidResponse.getDefaultInstance()));
         return future;
     }
 
@@ -389,7 +462,10 @@ public final class MembershipService {
         // The first step is to disable our failure detectors in anticipation of new ones to be created.
         cancelFailureDetectorJobs();
 
+        // The proposal is applied to the view as a single change, so readers either see all of it or none of it.
         final List<NodeStatusChange> statusChanges = new ArrayList<>(proposal.size());
+        final Map<Endpoint, NodeId> additions = new LinkedHashMap<>();
+        final List<Endpoint> removals = new ArrayList<>();
         synchronized (membershipUpdateLock) {
             for (final Endpoint node : proposal) {
                 final boolean isPresent = membershipView.isHostPresent(node);
@@ -397,14 +473,13 @@ public final class MembershipService {
                 // XXX: Maybe there's a cleaner way to do this in the future because
                 // this ties us to just two states a node can be in.
                 if (isPresent) {
-                    membershipView.ringDelete(node);
+                    removals.add(node);
                     statusChanges.add(new NodeStatusChange(node, EdgeStatus.DOWN, metadataManager.get(node)));
                     metadataManager.removeNode(node);
                 }
                 else {
                     assert joinerUuid.containsKey(node);
-                    final NodeId nodeId = joinerUuid.remove(node);
-                    membershipView.ringAdd(node, nodeId);
+                    additions.put(node, joinerUuid.remove(node));
                     final Metadata metadata = joinerMetadata.remove(node);
                     if (metadata.getMetadataCount() > 0) {
                         metadataManager.addMetadata(Collections.singletonMap(node, metadata));
@@ -412,31 +487,38 @@ public final class MembershipService {
                     statusChanges.add(new NodeStatusChange(node, EdgeStatus.UP, metadata));
                 }
             }
+            membershipView.applyViewChange(additions, removals);
         }
 
-        final long currentConfigurationId = membershipView.getCurrentConfigurationId();
+        // All reads below use the same snapshot, which also shares a single copy of the ring.
+        final MembershipSnapshot snapshot = membershipView.getSnapshot();
+        final long currentConfigurationId = snapshot.getConfigurationId();
         // Publish an event to the listeners.
-        final List<Endpoint> currentMembership = membershipView.getRing(0);
-        final ClusterStatusChange clusterStatusChange = new ClusterStatusChange(currentConfigurationId,
-                                                                                currentMembership, statusChanges);
-        subscriptions.get(ClusterEvents.VIEW_CHANGE).forEach(cb -> cb.accept(clusterStatusChange));
+        final List<Endpoint> currentMembership = snapshot.getRing(0);
+        final Supplier<ClusterStatusChange> clusterStatusChange = Suppliers.memoize(() ->
+                new ClusterStatusChange(currentConfigurationId, currentMembership, statusChanges));
+        subscriptions.publish(ClusterEvents.VIEW_CHANGE, clusterStatusChange);
+        deltaPublisher.onViewChange(currentConfigurationId, additions.keySet(), removals);
 
         // Clear data structures for the next round.
-        cutDetection.clear();
+        cutDetection.clear(snapshot.getNodeIndex());
         announcedProposal = false;
-        fastPaxosInstance = new FastPaxos(myAddr, currentConfigurationId, membershipView.getMembershipSize(),
+        fastPaxosInstance = new FastPaxos(myAddr, currentConfigurationId, snapshot.getNodeIndex(),
                                           messagingClient, broadcaster, backgroundTasksExecutor,
                                           this::decideViewChange, settings);
-        broadcaster.setMembership(membershipView.getRing(0));
+        broadcaster.setMembership(currentMembership);
+        if (alertBroadcaster != broadcaster) {
+            alertBroadcaster.setMembership(currentMembership);
+        }
 
         // Inform EdgeFailureDetector about membership change
-        if (membershipView.isHostPresent(myAddr)) {
+        if (snapshot.isHostPresent(myAddr)) {
             createFailureDetectorsForCurrentConfiguration();
         } else {
             // We need to gracefully exit by calling a user handler and invalidating
             // the current session.
             LOG.trace("Got kicked out and is shutting down.");
-            subscriptions.get(ClusterEvents.KICKED).forEach(cb -> cb.accept(clusterStatusChange));
+            subscriptions.publish(ClusterEvents.KICKED, clusterStatusChange);
         }
 
         // Send new configuration to all nodes joining through us
@@ -448,9 +530,32 @@ public final class MembershipService {
      */
     private ListenableFuture<RapidResponse> handleMessage(final ProbeMessage probeMessage) {
         LOG.trace("handleProbeMessage from {}", Utils.loggable(probeMessage.getSender()));
+        if (probeMessage.hasTarget() && !probeMessage.getTarget().equals(myAddr)) {
+            return handleIndirectProbe(probeMessage);
+        }
         return Futures.immediateFuture(Utils.toRapidResponse(ProbeResponse.getDefaultInstance()));
     }
 
+    /**
+     * Probes the target of an indirect probe on behalf of its sender. The sender gets the target's
+     * response, or UNREACHABLE if the target did not respond, so that it can tell a failed target
+     * apart from a failed helper.
+     *
+     * Only probes between current members are relayed, so that this node cannot be used to send probes
+     * to arbitrary addresses. Other requests are answered with UNREACHABLE without probing.
+     */
+    private ListenableFuture<RapidResponse> handleIndirectProbe(final ProbeMessage probeMessage) {
+        final MembershipSnapshot snapshot = membershipView.getSnapshot();
+        if (!snapshot.isHostPresent(probeMessage.getTarget()) || !snapshot.isHostPresent(probeMessage.getSender())) {
+            LOG.debug("Ignoring indirect probe from {} to {}, which are not both members",
+                      Utils.loggable(probeMessage.getSender()), Utils.loggable(probeMessage.getTarget()));
+            return UNREACHABLE_RESPONSE_FUTURE;
+        }
+        return Futures.catching(messagingClient.sendMessageBestEffort(probeMessage.getTarget(),
+                                                                      indirectProbeRequest),
+                                Throwable.class, t -> UNREACHABLE_RESPONSE, MoreExecutors.directExecutor());
+    }
+
 
     /**
      * Invoked by subscribers waiting for event notifications.
@@ -459,7 +564,7 @@ public final class MembershipService {
      */
     void registerSubscription(final ClusterEvents event,
                               final Consumer<ClusterStatusChange> callback) {
-        subscriptions.get(event).add(callback);
+        subscriptions.register(event, callback);
     }
 
 
@@ -501,9 +606,7 @@ public final class MembershipService {
      * @return list of endpoints in the membership view
      */
     List<Endpoint> getMembershipView() {
-        synchronized (membershipUpdateLock) {
-            return membershipView.getRing(0);
-        }
+        return membershipView.getRing(0);
     }
 
     /**
@@ -512,9 +615,31 @@ public final class MembershipService {
      * @return list of endpoints in the membership view
      */
     int getMembershipSize() {
-        synchronized (membershipUpdateLock) {
-            return membershipView.getMembershipSize();
-        }
+        return membershipView.getMembershipSize();
+    }
+
+    /**
+     * Gets the publisher of membership deltas.
+     */
+    MembershipDeltaPublisher getDeltaPublisher() {
+        return deltaPublisher;
+    }
+
+    /**
+     * Gets the time-in-queue statistics of the alerts this node has sent.
+     */
+    AlertBatchingStats getAlertBatchingStats() {
+        return alertBatcher.getStats();
+    }
+
+    /**
+     * The current membership as a snapshot for the delta publisher. The configuration ID and the members are
+     * read from the same snapshot.
+     */
+    private MembershipDelta getMembershipSnapshotAsDelta() {
+        final MembershipSnapshot snapshot = membershipView.getSnapshot();
+        return new MembershipDelta(snapshot.getConfigurationId(), snapshot.getRing(0), Collections.emptyList(),
+                                   true);
     }
 
 
@@ -533,8 +658,10 @@ public final class MembershipService {
      * Shuts down all the executors.
      */
     void shutdown() {
-        alertBatcherJob.cancel(true);
-        failureDetectorJobs.forEach(k -> k.cancel(true));
+        deltaPublisher.shutdown();
+        alertBatcher.shutdown();
+        probeScheduler.shutdown();
+        fdFactory.shutdown();
         messagingClient.shutdown();
     }
 
@@ -570,14 +697,16 @@ public final class MembershipService {
      * @param msg the AlertMessage to be broadcasted
      */
     private void enqueueAlertMessage(final AlertMessage msg) {
-        batchSchedulerLock.lock();
-        try {
-            lastEnqueueTimestamp = System.currentTimeMillis();
-            sendQueue.add(msg);
-        }
-        finally {
-            batchSchedulerLock.unlock();
-        }
+        alertBatcher.enqueue(msg);
+    }
+
+    /**
+     * Queues alerts received from other nodes to be relayed in our next batch.
+     */
+    private void relayAlertMessages(final List<AlertMessage> messages, final long currentConfigurationId) {
+        alertBatcher.enqueueRelayed(messages.stream()
+                .filter(msg -> msg.getConfigurationId() == currentConfigurationId)
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -608,32 +737,14 @@ public final class MembershipService {
 
 
     /**
-     * Batches outgoing AlertMessages into a single BatchAlertMessage.
+     * Sends a batch of AlertMessages flushed by the AlertBatcher as a single BatchedAlertMessage.
      */
-    private class AlertBatcher implements Runnable {
-
-        @Override
-        public void run() {
-            batchSchedulerLock.lock();
-            try {
-                // Wait one BATCHING_WINDOW_IN_MS since last add before sending out
-                if (!sendQueue.isEmpty() && lastEnqueueTimestamp > 0
-                        && (System.currentTimeMillis() - lastEnqueueTimestamp) > settings.getBatchingWindowInMs()) {
-                    LOG.trace("Scheduler is sending out {} messages", sendQueue.size());
-                    final ArrayList<AlertMessage> messages = new ArrayList<>(sendQueue.size());
-                    final int numDrained = sendQueue.drainTo(messages);
-                    assert numDrained > 0;
-                    final BatchedAlertMessage batched = BatchedAlertMessage.newBuilder()
-                            .setSender(myAddr)
-                            .addAllMessages(messages)
-                            .build();
-                    broadcaster.broadcast(Utils.toRapidRequest(batched));
-                }
-            }
-            finally {
-                batchSchedulerLock.unlock();
-            }
-        }
+    private void broadcastAlertBatch(final List<AlertMessage> messages) {
+        final BatchedAlertMessage batched = BatchedAlertMessage.newBuilder()
+                .setSender(myAddr)
+                .addAllMessages(messages)
+                .build();
+        alertBroadcaster.broadcast(Utils.toRapidRequest(batched));
     }
 
     /**
@@ -643,12 +754,12 @@ public final class MembershipService {
      */
     private boolean filterAlertMessages(final BatchedAlertMessage batchedAlertMessage,
                                         final AlertMessage alertMessage,
-                                        final int membershipSize,
-                                        final long currentConfigurationId) {
+                                        final MembershipSnapshot snapshot) {
         final Endpoint destination = alertMessage.getEdgeDst();
+        final long currentConfigurationId = snapshot.getConfigurationId();
         LOG.trace("AlertMessage received {sender:{}, config:{}, size:{}, status:{}}",
                 Utils.loggable(batchedAlertMessage.getSender()), alertMessage.getConfigurationId(),
-                membershipSize, alertMessage.getEdgeStatus());
+                snapshot.getMembershipSize(), alertMessage.getEdgeStatus());
 
         if (currentConfigurationId != alertMessage.getConfigurationId()) {
             LOG.trace("AlertMessage for configuration {} received during configuration {}",
@@ -659,13 +770,13 @@ public final class MembershipService {
         // The invariant we want to maintain is that a node can only go into the
         // membership set once and leave it once.
         if (alertMessage.getEdgeStatus().equals(EdgeStatus.UP)
-                && membershipView.isHostPresent(destination)) {
+                && snapshot.isHostPresent(destination)) {
             LOG.trace("AlertMessage with status UP received for node {} already in configuration {} ",
                     Utils.loggable(alertMessage.getEdgeDst()), currentConfigurationId);
             return false;
         }
         if (alertMessage.getEdgeStatus().equals(EdgeStatus.DOWN)
-                && !membershipView.isHostPresent(destination)) {
+                && !snapshot.isHostPresent(destination)) {
             LOG.trace("AlertMessage with status DOWN received for node {} already in configuration {} ",
                     Utils.loggable(alertMessage.getEdgeDst()), currentConfigurationId);
             return false;
@@ -673,44 +784,59 @@ public final class MembershipService {
 
         return true;
     }
-    
-    private AlertMessage extractJoinerUuidAndMetadata(final AlertMessage alertMessage) {
+
+    private void extractJoinerUuidAndMetadata(final AlertMessage alertMessage) {
         if (alertMessage.getEdgeStatus() == EdgeStatus.UP) {
             // Both the UUID and Metadata are saved only after the node is done being added.
             final Endpoint destination = alertMessage.getEdgeDst();
             joinerUuid.put(destination, alertMessage.getNodeId());
             joinerMetadata.put(destination, alertMessage.getMetadata());
         }
-        return alertMessage;
     }
 
     /**
      * Invoked eventually by edge failure detectors to notify MembershipService of failed nodes
      */
     private Runnable createNotifierForSubject(final Endpoint subject) {
-        return () -> edgeFailureNotification(subject, membershipView.getCurrentConfigurationId());
+        return () -> {
+            notifiedSubjects.add(subject);
+            edgeFailureNotification(subject, membershipView.getCurrentConfigurationId());
+        };
     }
 
     /**
-     * Creates and schedules failure detector instances based on the fdFactory instance.
+     * Creates failure detector instances based on the fdFactory instance, and hands them to the probe
+     * scheduler. Subjects that we were already monitoring keep their detector, with the state it has built up,
+     * and their place in the probe schedule. Only a detector that has already notified us is replaced, since
+     * it would otherwise stay silent about its subject in the new configuration.
+     *
+     * A subject that we monitor on several rings is probed by a single detector. When it fails, the alert
+     * carries all the rings on which we observe it (see edgeFailureNotification()).
      */
     private void createFailureDetectorsForCurrentConfiguration() {
-        final List<ScheduledFuture<?>> jobs = membershipView.getSubjectsOf(myAddr)
-                .stream().map(subject -> backgroundTasksExecutor
-                         .scheduleAtFixedRate(fdFactory.createInstance(subject,
-                                createNotifierForSubject(subject)), // Runnable
-                                DEFAULT_FAILURE_DETECTOR_INITIAL_DELAY_IN_MS,
-                                settings.getFailureDetectorIntervalInMs(),
-                                TimeUnit.MILLISECONDS))
-                .collect(Collectors.toList());
-        failureDetectorJobs.addAll(jobs);
+        final List<Endpoint> membership = membershipView.getRing(0);
+        sharedResources.getPeerActivityTracker().retainAll(membership);
+        fdFactory.onMembershipChange(membership);
+        final Map<Endpoint, Runnable> detectors = new LinkedHashMap<>();
+        for (final Endpoint subject : membershipView.getDistinctSubjectsOf(myAddr)) {
+            final Runnable existing = failureDetectors.get(subject);
+            detectors.put(subject, !notifiedSubjects.remove(subject) && existing != null
+                                   ? existing
+                                   : fdFactory.createInstance(subject, createNotifierForSubject(subject)));
+        }
+        // A detector that was still running when the scheduler paused may notify concurrently. Such
+        // subjects stay marked, so that their detector is replaced at the next view change.
+        notifiedSubjects.retainAll(detectors.keySet());
+        failureDetectors.clear();
+        failureDetectors.putAll(detectors);
+        probeScheduler.setDetectors(detectors);
     }
 
     /**
-     * Cancel all running failure detector tasks
+     * Stop running all failure detectors
      */
     private void cancelFailureDetectorJobs() {
-        failureDetectorJobs.forEach(future -> future.cancel(true));
+        probeScheduler.pause();
     }
 
     /**
@@ -720,14 +846,14 @@ public final class MembershipService {
         // This should yield the new configuration.
         final MembershipView.Configuration configuration = membershipView.getConfiguration();
         assert !configuration.endpoints.isEmpty();
-        assert !configuration.nodeIds.isEmpty();
+        assert configuration.identifiers.size() > 0;
 
         final JoinResponse response = JoinResponse.newBuilder()
                 .setSender(myAddr)
                 .setStatusCode(JoinStatusCode.SAFE_TO_JOIN)
                 .setConfigurationId(configuration.getConfigurationId())
                 .addAllEndpoints(configuration.endpoints)
-                .addAllIdentifiers(configuration.nodeIds)
+                .setPackedIdentifiers(configuration.identifiers.encode())
                 .addAllMetadataKeys(metadataManager.getAllMetadata().keySet())
                 .addAllMetadataValues(metadataManager.getAllMetadata().values())
                 .build();
@@ -747,5 +873,11 @@ public final class MembershipService {
         int getFailureDetectorIntervalInMs();
 
         int getBatchingWindowInMs();
+
+        int getMaxAlertBatchSize();
+
+        int getMaxAlertBatchDelayInMs();
+
+        int getAlertRelayFanout();
     }
 }
\ No newline at end of file
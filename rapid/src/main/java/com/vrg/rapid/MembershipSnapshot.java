@@ -0,0 +1,358 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.google.common.collect.ImmutableList;
+import com.vrg.rapid.MembershipView.AddressComparator;
+import com.vrg.rapid.MembershipView.NodeNotInRingException;
+import com.vrg.rapid.pb.Endpoint;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable, versioned state of a MembershipView: the K rings, the configuration identifier, and an
+ * adjacency index of the observer/subject relationships derived from them. MembershipView publishes a new
+ * snapshot on every change through a single volatile reference, so readers neither lock nor copy, and a
+ * reader holding a snapshot sees a consistent configuration for as long as it keeps it.
+ *
+ * The adjacency index is only patched around the nodes that changed on each update, so observer, subject
+ * and ring number lookups are array reads.
+ */
+@ThreadSafe
+final class MembershipSnapshot {
+    // Below this many ring entries (members times K), rebuilding the rings is cheaper than forking tasks
+    private static final long PARALLEL_THRESHOLD = 1 << 14;
+    private final int K;
+    private final long version;
+    private final long configurationId;
+    private final AddressComparator[] addressComparators;
+    // None of the following are mutated once the snapshot is constructed
+    private final EndpointIndex nodeIndex;
+    private final HashRing[] rings;
+    private final long[] ringHashes; // K hashes per node index, indexed by (node * K + k)
+    // The adjacency index: the successor (observer) and predecessor (subject) of each node on each ring,
+    // indexed like ringHashes. Entries of nodes that are not members are stale and must not be read.
+    private final int[] observers;
+    private final int[] subjects;
+    @Nullable private volatile List<Endpoint> ringZero = null; // materialized on first use
+
+    private MembershipSnapshot(final int K, final long version, final long configurationId,
+                               final AddressComparator[] addressComparators, final EndpointIndex nodeIndex,
+                               final HashRing[] rings, final long[] ringHashes, final int[] observers,
+                               final int[] subjects) {
+        this.K = K;
+        this.version = version;
+        this.configurationId = configurationId;
+        this.addressComparators = addressComparators;
+        this.nodeIndex = nodeIndex;
+        this.rings = rings;
+        this.ringHashes = ringHashes;
+        this.observers = observers;
+        this.subjects = subjects;
+    }
+
+    /**
+     * Builds the initial snapshot for a set of endpoints. Every ring is built by hashing all endpoints with the
+     * ring's seed and sorting the resulting arrays. For large views, such as the one a joiner builds from a
+     * JoinResponse, the K rings are built concurrently on the common fork-join pool.
+     */
+    static MembershipSnapshot bootstrap(final int K, final AddressComparator[] addressComparators,
+                                        final Collection<Endpoint> endpoints, final long configurationId) {
+        final EndpointIndex nodeIndex = new EndpointIndex(endpoints.size());
+        for (final Endpoint endpoint : endpoints) {
+            nodeIndex.add(endpoint);
+        }
+        final int size = nodeIndex.size();
+        final long[] ringHashes = new long[size * K];
+        final HashRing[] rings = new HashRing[K];
+        final int[] observers = new int[size * K];
+        final int[] subjects = new int[size * K];
+        // Each task only reads nodeIndex and writes to its own ring and its own slots of the shared arrays
+        forEachRing(K, (long) size * K, k -> {
+            final long[] hashes = new long[size];
+            final int[] nodes = new int[size];
+            for (int node = 0; node < size; node++) {
+                final long hash = addressComparators[k].hash(nodeIndex.get(node));
+                ringHashes[node * K + k] = hash;
+                hashes[node] = hash;
+                nodes[node] = node;
+            }
+            rings[k] = HashRing.fromUnsorted(hashes, nodes, nodeIndex);
+            linkAll(rings[k], k, K, observers, subjects);
+        });
+        return new MembershipSnapshot(K, 0, configurationId, addressComparators, nodeIndex, rings, ringHashes,
+                                      observers, subjects);
+    }
+
+    /**
+     * Returns the next version of this snapshot, with a batch of additions and removals applied with one merge
+     * pass per ring. Rings are independent of each other, so for large views they are rebuilt in parallel.
+     * Nodes being added must not be present and nodes being removed must be present. This snapshot is left
+     * untouched.
+     */
+    MembershipSnapshot update(final Collection<Endpoint> additions, final Collection<Endpoint> removals,
+                              final long newConfigurationId) {
+        final EndpointIndex newIndex = nodeIndex.copy();
+        final int[] addedNodes = new int[additions.size()];
+        int count = 0;
+        for (final Endpoint endpoint : additions) {
+            addedNodes[count++] = newIndex.add(endpoint);
+        }
+        final long[] newRingHashes = Arrays.copyOf(ringHashes, Math.max(ringHashes.length, newIndex.limit() * K));
+        final int[] newObservers = Arrays.copyOf(observers, newRingHashes.length);
+        final int[] newSubjects = Arrays.copyOf(subjects, newRingHashes.length);
+        final BitSet removed = new BitSet(newIndex.limit());
+        for (final Endpoint endpoint : removals) {
+            removed.set(newIndex.indexOf(endpoint));
+        }
+        // Each task only reads the shared state and writes to its own ring and its own slots of newRingHashes
+        final HashRing[] newRings = new HashRing[K];
+        forEachRing(K, (long) (rings[0].size() + addedNodes.length) * K, k -> {
+            final long[] addedHashes = new long[addedNodes.length];
+            for (int i = 0; i < addedNodes.length; i++) {
+                final int node = addedNodes[i];
+                addedHashes[i] = addressComparators[k].hash(newIndex.get(node));
+                newRingHashes[node * K + k] = addedHashes[i];
+            }
+            final HashRing ring = rings[k].update(addedHashes, addedNodes.clone(), removed, newIndex);
+            newRings[k] = ring;
+            if (ring.size() == 0) {
+                return;
+            }
+            if (4 * (addedNodes.length + removals.size()) >= ring.size()) {
+                linkAll(ring, k, K, newObservers, newSubjects);
+                return;
+            }
+            // Only the neighbours of nodes that were added or removed have a new observer or subject
+            for (final int node : addedNodes) {
+                final int position = ring.search(newRingHashes[node * K + k], newIndex.get(node), newIndex);
+                linkAround(ring, position - 1, k, K, newObservers, newSubjects);
+                linkAround(ring, position, k, K, newObservers, newSubjects);
+                linkAround(ring, position + 1, k, K, newObservers, newSubjects);
+            }
+            for (final Endpoint endpoint : removals) {
+                final int node = newIndex.indexOf(endpoint);
+                final int position = -(ring.search(newRingHashes[node * K + k], endpoint, newIndex) + 1);
+                linkAround(ring, position - 1, k, K, newObservers, newSubjects);
+                linkAround(ring, position, k, K, newObservers, newSubjects);
+            }
+        });
+        for (final Endpoint endpoint : removals) {
+            newIndex.remove(endpoint);
+        }
+        return new MembershipSnapshot(K, version + 1, newConfigurationId, addressComparators, newIndex, newRings,
+                                      newRingHashes, newObservers, newSubjects);
+    }
+
+    /**
+     * Runs {@code task} once for every ring number, in parallel if there are at least PARALLEL_THRESHOLD
+     * {@code entries} to process across all rings. Writes made by the tasks are visible once this returns.
+     */
+    private static void forEachRing(final int K, final long entries, final IntConsumer task) {
+        final IntStream ringNumbers = IntStream.range(0, K);
+        final boolean parallel = K > 1 && entries >= PARALLEL_THRESHOLD;
+        (parallel ? ringNumbers.parallel() : ringNumbers).forEach(task);
+    }
+
+    /**
+     * Records the observer and subject on ring {@code k} of every node in {@code ring}.
+     */
+    private static void linkAll(final HashRing ring, final int k, final int K, final int[] observers,
+                                final int[] subjects) {
+        for (int position = 0; position < ring.size(); position++) {
+            linkAround(ring, position, k, K, observers, subjects);
+        }
+    }
+
+    /**
+     * Records the observer and subject on ring {@code k} of the node at {@code position}, which may be
+     * one step outside the bounds of the ring and is wrapped around.
+     */
+    private static void linkAround(final HashRing ring, final int position, final int k, final int K,
+                                   final int[] observers, final int[] subjects) {
+        final int size = ring.size();
+        final int wrapped = (position + size) % size;
+        final int node = ring.nodeAt(wrapped);
+        observers[node * K + k] = ring.nodeAt(wrapped + 1 == size ? 0 : wrapped + 1);
+        subjects[node * K + k] = ring.nodeAt(wrapped == 0 ? size - 1 : wrapped - 1);
+    }
+
+    /**
+     * A counter that increases by one with every change published by the owning MembershipView.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    long getConfigurationId() {
+        return configurationId;
+    }
+
+    int getMembershipSize() {
+        return nodeIndex.size();
+    }
+
+    /**
+     * The interning table of this configuration's members, shared by the per-configuration protocol state
+     * (consensus and cut detection) to index its arrays and bitsets. It is never modified once the snapshot
+     * is published, and callers must not modify it either.
+     */
+    EndpointIndex getNodeIndex() {
+        return nodeIndex;
+    }
+
+    boolean isHostPresent(final Endpoint address) {
+        return nodeIndex.indexOf(address) >= 0;
+    }
+
+    /**
+     * Get the list of endpoints in the k'th ring. The list for ring 0 is built once and shared by all callers.
+     */
+    List<Endpoint> getRing(final int k) {
+        assert k >= 0 && k < K;
+        if (k != 0) {
+            return materialize(rings[k]);
+        }
+        List<Endpoint> ring = ringZero;
+        if (ring == null) {
+            ring = materialize(rings[0]);
+            ringZero = ring;
+        }
+        return ring;
+    }
+
+    /**
+     * @throws NodeNotInRingException thrown if {@code node} is not in the ring
+     */
+    List<Endpoint> getObserversOf(final Endpoint node) {
+        return neighboursOf(node, observers);
+    }
+
+    /**
+     * @throws NodeNotInRingException thrown if {@code node} is not in the ring
+     */
+    List<Endpoint> getSubjectsOf(final Endpoint node) {
+        return neighboursOf(node, subjects);
+    }
+
+    /**
+     * Returns each subject of {@code node} once, in the order of the first ring it appears on. In small
+     * clusters the same subject is usually the successor of {@code node} on several rings.
+     *
+     * @throws NodeNotInRingException thrown if {@code node} is not in the ring
+     */
+    List<Endpoint> getDistinctSubjectsOf(final Endpoint node) {
+        Objects.requireNonNull(node);
+        final int index = nodeIndex.indexOf(node);
+        if (index < 0) {
+            throw new NodeNotInRingException(node);
+        }
+        if (nodeIndex.size() <= 1) {
+            return Collections.emptyList();
+        }
+        final List<Endpoint> distinct = new ArrayList<>(K);
+        for (int k = 0; k < K; k++) {
+            final int subject = subjects[index * K + k];
+            boolean isDuplicate = false;
+            for (int j = 0; j < k && !isDuplicate; j++) {
+                isDuplicate = subjects[index * K + j] == subject;
+            }
+            if (!isDuplicate) {
+                distinct.add(nodeIndex.get(subject));
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Returns the observers {@code node} would have if it joined. Empty list if the membership is empty.
+     * Members are answered from the adjacency index, others with one search per ring.
+     */
+    List<Endpoint> getExpectedObserversOf(final Endpoint node) {
+        Objects.requireNonNull(node);
+        if (nodeIndex.size() == 0) {
+            return Collections.emptyList();
+        }
+        if (nodeIndex.size() > 1 && nodeIndex.indexOf(node) >= 0) {
+            return neighboursOf(node, subjects);
+        }
+        final List<Endpoint> expectedObservers = new ArrayList<>(K);
+        for (int k = 0; k < K; k++) {
+            final HashRing ring = rings[k];
+            final int position = ring.predecessorOf(addressComparators[k].hash(node), node, nodeIndex);
+            expectedObservers.add(nodeIndex.get(ring.nodeAt(position)));
+        }
+        return expectedObservers;
+    }
+
+    /**
+     * Get the indexes k such that {@code subject} is the subject of {@code observer} on ring k.
+     *
+     * @throws NodeNotInRingException thrown if {@code observer} is not in the ring
+     */
+    List<Integer> getRingNumbers(final Endpoint observer, final Endpoint subject) {
+        final int observerIndex = nodeIndex.indexOf(observer);
+        if (observerIndex < 0) {
+            throw new NodeNotInRingException(observer);
+        }
+        final int subjectIndex = nodeIndex.indexOf(subject);
+        if (nodeIndex.size() <= 1 || subjectIndex < 0) {
+            return Collections.emptyList();
+        }
+        final List<Integer> ringIndexes = new ArrayList<>();
+        for (int k = 0; k < K; k++) {
+            if (subjects[observerIndex * K + k] == subjectIndex) {
+                ringIndexes.add(k);
+            }
+        }
+        return ringIndexes;
+    }
+
+    /**
+     * Reads the K entries of {@code node} from one side of the adjacency index.
+     */
+    private List<Endpoint> neighboursOf(final Endpoint node, final int[] adjacency) {
+        Objects.requireNonNull(node);
+        final int index = nodeIndex.indexOf(node);
+        if (index < 0) {
+            throw new NodeNotInRingException(node);
+        }
+        if (nodeIndex.size() <= 1) {
+            return Collections.emptyList();
+        }
+        final List<Endpoint> neighbours = new ArrayList<>(K);
+        for (int k = 0; k < K; k++) {
+            neighbours.add(nodeIndex.get(adjacency[index * K + k]));
+        }
+        return neighbours;
+    }
+
+    private List<Endpoint> materialize(final HashRing ring) {
+        final ImmutableList.Builder<Endpoint> builder = ImmutableList.builderWithExpectedSize(ring.size());
+        for (int position = 0; position < ring.size(); position++) {
+            builder.add(nodeIndex.get(ring.nodeAt(position)));
+        }
+        return builder.build();
+    }
+}
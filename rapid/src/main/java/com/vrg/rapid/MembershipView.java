@@ -14,78 +14,86 @@
 package com.vrg.rapid;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.vrg.rapid.pb.Endpoint;
 import com.vrg.rapid.pb.JoinStatusCode;
 import com.vrg.rapid.pb.NodeId;
 import net.openhft.hashing.LongHashFunction;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Hosts K permutations of the memberlist that represent the monitoring relationship between nodes;
  * every node (an observer) observers its successor (a subject) on each ring.
+ *
+ * The rings are held in an immutable {@link MembershipSnapshot} that is replaced on every change and
+ * published through a volatile reference, so queries about the rings do not take any locks.
  */
 @ThreadSafe
 final class MembershipView {
     private final int K;
     private static final LongHashFunction HASH_FUNCTION = LongHashFunction.xx(0);
     private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
-    @GuardedBy("rwLock") private final ArrayList<AddressComparator> addressComparators;
-    @GuardedBy("rwLock") private final ArrayList<NavigableSet<Endpoint>> rings;
-    @GuardedBy("rwLock") private final Set<NodeId> identifiersSeen = new TreeSet<>(NodeIdComparator.INSTANCE);
-    @GuardedBy("rwLock") private final Map<Endpoint, List<Endpoint>> cachedObservers = new HashMap<>();
-    @GuardedBy("rwLock") private final Set<Endpoint> allNodes = new HashSet<>();
-    @GuardedBy("rwLock") private long currentConfigurationId = -1;
-    @GuardedBy("rwLock") private Configuration currentConfiguration;
-    @GuardedBy("rwLock") private boolean shouldUpdateConfigurationId = true;
+    private final AddressComparator[] addressComparators;
+    private volatile MembershipSnapshot snapshot; // written only while holding the write lock
+    @GuardedBy("rwLock") private final IdentifierSet identifiersSeen;
+    // Order-independent sums of per-element hashes, from which the configuration ID is derived in O(1)
+    @GuardedBy("rwLock") private long identifiersHash = 0;
+    @GuardedBy("rwLock") private long endpointsHash = 0;
+    @GuardedBy("rwLock") @Nullable private Configuration currentConfiguration = null;
 
     MembershipView(final int K) {
-        assert K > 0;
-        this.K = K;
-        this.rings = new ArrayList<>(K);
-        this.addressComparators = new ArrayList<>(K);
-        for (int k = 0; k < K; k++) {
-            final AddressComparator comparatorWithSeed = new AddressComparator(k);
-            this.addressComparators.add(comparatorWithSeed);
-            this.rings.add(new TreeSet<>(comparatorWithSeed));
-        }
-        this.currentConfiguration = new Configuration(identifiersSeen, rings.get(0));
+        this(K, new IdentifierSet(), Collections.emptyList());
     }
 
     /**
      * Used to bootstrap a membership view from the fields of a MembershipView.Settings object.
      */
     MembershipView(final int K, final Collection<NodeId> nodeIds, final Collection<Endpoint> endpoints) {
+        this(K, IdentifierSet.of(nodeIds), endpoints);
+    }
+
+    /**
+     * Used by joiners to bootstrap a membership view from a JoinResponse. The view takes ownership of
+     * {@code identifiers}.
+     */
+    MembershipView(final int K, final IdentifierSet identifiers, final Collection<Endpoint> endpoints) {
         assert K > 0;
         this.K = K;
-        this.rings = new ArrayList<>(K);
-        this.addressComparators = new ArrayList<>(K);
+        this.addressComparators = new AddressComparator[K];
         for (int k = 0; k < K; k++) {
-            final AddressComparator comparatorWithSeed = new AddressComparator(k);
-            this.addressComparators.add(comparatorWithSeed);
-            final TreeSet<Endpoint> set = new TreeSet<>(comparatorWithSeed);
-            set.addAll(endpoints);
-            allNodes.addAll(endpoints);
-            this.rings.add(set);
+            addressComparators[k] = new AddressComparator(k);
+        }
+        final Set<Endpoint> uniqueEndpoints = ImmutableSet.copyOf(endpoints);
+        for (final Endpoint endpoint : uniqueEndpoints) {
+            endpointsHash += Configuration.hash(endpoint);
+        }
+        this.identifiersSeen = identifiers;
+        for (int i = 0; i < identifiers.size(); i++) {
+            identifiersHash += Configuration.hash(identifiers.highAt(i), identifiers.lowAt(i));
         }
-        this.identifiersSeen.addAll(nodeIds);
-        this.currentConfiguration = new Configuration(identifiersSeen, rings.get(0));
+        this.snapshot = MembershipSnapshot.bootstrap(K, addressComparators, uniqueEndpoints,
+                                                     Configuration.combine(identifiersHash, endpointsHash));
+    }
+
+    /**
+     * Returns the current state of the view. The snapshot never changes, and later changes to the view
+     * are published as new snapshots.
+     */
+    MembershipSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
@@ -100,7 +108,7 @@ final class MembershipView {
     JoinStatusCode isSafeToJoin(final Endpoint node, final NodeId uuid) {
         rwLock.readLock().lock();
         try {
-            if (allNodes.contains(node)) {
+            if (snapshot.isHostPresent(node)) {
                 return JoinStatusCode.HOSTNAME_ALREADY_IN_RING;
             }
 
@@ -123,40 +131,7 @@ final class MembershipView {
     void ringAdd(final Endpoint node, final NodeId nodeId) {
         Objects.requireNonNull(node);
         Objects.requireNonNull(nodeId);
-
-        if (isIdentifierPresent(nodeId)) {
-            throw new UUIDAlreadySeenException(node, nodeId);
-        }
-
-        rwLock.writeLock().lock();
-        try {
-            if (rings.get(0).contains(node)) {
-                throw new NodeAlreadyInRingException(node);
-            }
-
-            final Set<Endpoint> affectedSubjects = new HashSet<>();
-
-            for (int k = 0; k < K; k++) {
-                final NavigableSet<Endpoint> endpoints = rings.get(k);
-                endpoints.add(node);
-
-                final Endpoint subject = endpoints.lower(node);
-                if (subject != null) {
-                    affectedSubjects.add(subject);
-                }
-            }
-            allNodes.add(node);
-
-            for (final Endpoint subject : affectedSubjects) {
-                cachedObservers.remove(subject);
-            }
-
-            identifiersSeen.add(nodeId);
-
-            shouldUpdateConfigurationId = true;
-        } finally {
-            rwLock.writeLock().unlock();
-        }
+        applyViewChange(Collections.singletonMap(node, nodeId), Collections.emptyList());
     }
 
     /**
@@ -166,35 +141,56 @@ final class MembershipView {
      */
     void ringDelete(final Endpoint node) {
         Objects.requireNonNull(node);
+        applyViewChange(Collections.emptyMap(), Collections.singletonList(node));
+    }
+
+    /**
+     * Applies a batch of additions and removals as a single change: each ring is rebuilt with one merge pass
+     * (in parallel across rings for large views) and a single new snapshot is published. The batch is validated
+     * before anything is modified, so if an exception is thrown the view is left unchanged.
+     *
+     * @param additions the nodes to add, with their logical identifiers
+     * @param removals the nodes to remove
+     * @throws UUIDAlreadySeenException if the identifier of a node being added has been seen before
+     * @throws NodeAlreadyInRingException if a node being added is already in the ring
+     * @throws NodeNotInRingException if a node being removed is not in the ring
+     */
+    void applyViewChange(final Map<Endpoint, NodeId> additions, final Collection<Endpoint> removals) {
+        if (additions.isEmpty() && removals.isEmpty()) {
+            return;
+        }
+        final Set<Endpoint> uniqueRemovals = ImmutableSet.copyOf(removals);
         rwLock.writeLock().lock();
         try {
-
-            if (!rings.get(0).contains(node)) {
-                throw new NodeNotInRingException(node);
+            final MembershipSnapshot current = snapshot;
+            final IdentifierSet newIdentifiers = new IdentifierSet();
+            for (final Map.Entry<Endpoint, NodeId> entry : additions.entrySet()) {
+                final Endpoint node = Objects.requireNonNull(entry.getKey());
+                final NodeId nodeId = Objects.requireNonNull(entry.getValue());
+                if (identifiersSeen.contains(nodeId) || !newIdentifiers.add(nodeId)) {
+                    throw new UUIDAlreadySeenException(node, nodeId);
+                }
+                if (current.isHostPresent(node)) {
+                    throw new NodeAlreadyInRingException(node);
+                }
             }
-
-            final Set<Endpoint> affectedSubjects = new HashSet<>();
-
-            for (int k = 0; k < K; k++) {
-                final NavigableSet<Endpoint> endpoints = rings.get(k);
-
-                final Endpoint oldSubject = endpoints.lower(node);
-                if (oldSubject != null) {
-                    affectedSubjects.add(oldSubject);
+            for (final Endpoint node : uniqueRemovals) {
+                if (!current.isHostPresent(Objects.requireNonNull(node))) {
+                    throw new NodeNotInRingException(node);
                 }
-
-                endpoints.remove(node);
-
-                addressComparators.get(k).removeEndpoint(node);
-                cachedObservers.remove(node);
             }
-            allNodes.remove(node);
-
-            for (final Endpoint subject : affectedSubjects) {
-                cachedObservers.remove(subject);
+            for (final Map.Entry<Endpoint, NodeId> entry : additions.entrySet()) {
+                final NodeId nodeId = entry.getValue();
+                identifiersSeen.add(nodeId);
+                identifiersHash += Configuration.hash(nodeId.getHigh(), nodeId.getLow());
+                endpointsHash += Configuration.hash(entry.getKey());
             }
-
-            shouldUpdateConfigurationId = true;
+            for (final Endpoint node : uniqueRemovals) {
+                endpointsHash -= Configuration.hash(node);
+            }
+            currentConfiguration = null;
+            snapshot = current.update(additions.keySet(), uniqueRemovals, Configuration.combine(identifiersHash,
+                                                                                         endpointsHash));
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -208,77 +204,29 @@ final class MembershipView {
      * @throws NodeNotInRingException thrown if {@code node} is not in the ring
      */
     List<Endpoint> getObserversOf(final Endpoint node) {
-        Objects.requireNonNull(node);
-        rwLock.readLock().lock();
-        try {
-            if (!allNodes.contains(node)) {
-                throw new NodeNotInRingException(node);
-            }
-            if (!cachedObservers.containsKey(node)) {
-                cachedObservers.put(node, computeObserversOf(node));
-            }
-            return cachedObservers.get(node);
-        } finally {
-            rwLock.readLock().unlock();
-        }
+        return snapshot.getObserversOf(node);
     }
 
     /**
-     * Computes the set of observers for {@code node}.
-     * Only call this from a (thread-)safe place!
-     *
+     * Returns the set of nodes monitored by {@code node}
+
      * @param node input node
-     * @return the set of observers for {@code node}
+     * @return the set of nodes monitored by {@code node}
      * @throws NodeNotInRingException thrown if {@code node} is not in the ring
      */
-    private List<Endpoint> computeObserversOf(final Endpoint node) {
-        Objects.requireNonNull(node);
-        if (!rings.get(0).contains(node)) {
-            throw new NodeNotInRingException(node);
-        }
-
-        if (rings.get(0).size() <= 1) {
-            return Collections.emptyList();
-        }
-
-        final List<Endpoint> observers = new ArrayList<>();
-
-        for (int k = 0; k < K; k++) {
-            final NavigableSet<Endpoint> list = rings.get(k);
-            final Endpoint successor = list.higher(node);
-            if (successor == null) {
-                observers.add(list.first());
-            }
-            else {
-                observers.add(successor);
-            }
-        }
-        return observers;
+    List<Endpoint> getSubjectsOf(final Endpoint node) {
+        return snapshot.getSubjectsOf(node);
     }
 
-
     /**
-     * Returns the set of nodes monitored by {@code node}
-
+     * Returns the distinct nodes monitored by {@code node}, each once even if it is a subject on several rings.
+     *
      * @param node input node
-     * @return the set of nodes monitored by {@code node}
+     * @return the distinct nodes monitored by {@code node}
      * @throws NodeNotInRingException thrown if {@code node} is not in the ring
      */
-    List<Endpoint> getSubjectsOf(final Endpoint node) {
-        Objects.requireNonNull(node);
-        rwLock.readLock().lock();
-        try {
-            if (!allNodes.contains(node)) {
-                throw new NodeNotInRingException(node);
-            }
-
-            if (rings.get(0).size() <= 1) {
-                return Collections.emptyList();
-            }
-            return getPredecessorsOf(node);
-        } finally {
-            rwLock.readLock().unlock();
-        }
+    List<Endpoint> getDistinctSubjectsOf(final Endpoint node) {
+        return snapshot.getDistinctSubjectsOf(node);
     }
 
     /**
@@ -290,35 +238,7 @@ final class MembershipView {
      * @return the list of nodes monitored by {@code node}. Empty list if the membership is empty.
      */
     List<Endpoint> getExpectedObserversOf(final Endpoint node) {
-        Objects.requireNonNull(node);
-        rwLock.readLock().lock();
-        try {
-            if (rings.get(0).isEmpty()) {
-                return Collections.emptyList();
-            }
-            return getPredecessorsOf(node);
-        } finally {
-            rwLock.readLock().unlock();
-        }
-    }
-
-    /**
-     * Used by getExpectedObserversOf() and getObserversOf().
-     */
-    private List<Endpoint> getPredecessorsOf(final Endpoint node) {
-        final List<Endpoint> subjects = new ArrayList<>();
-
-        for (int k = 0; k < K; k++) {
-            final NavigableSet<Endpoint> list = rings.get(k);
-            final Endpoint predecessor = list.lower(node);
-            if (predecessor == null) {
-                subjects.add(list.last());
-            }
-            else {
-                subjects.add(predecessor);
-            }
-        }
-        return subjects;
+        return snapshot.getExpectedObserversOf(node);
     }
 
     /**
@@ -328,12 +248,7 @@ final class MembershipView {
      * @return True if the node is present in the membership view and false otherwise.
      */
     boolean isHostPresent(final Endpoint address) {
-        rwLock.readLock().lock();
-        try {
-            return allNodes.contains(address);
-        } finally {
-            rwLock.readLock().unlock();
-        }
+        return snapshot.isHostPresent(address);
     }
 
     /**
@@ -358,17 +273,7 @@ final class MembershipView {
      * @return the current configuration identifier.
      */
     long getCurrentConfigurationId() {
-        rwLock.readLock().lock();
-        try {
-            if (shouldUpdateConfigurationId) {
-                updateCurrentConfigurationId();
-                shouldUpdateConfigurationId = false;
-            }
-            return currentConfigurationId;
-        }
-        finally {
-            rwLock.readLock().unlock();
-        }
+        return snapshot.getConfigurationId();
     }
 
     /**
@@ -378,13 +283,7 @@ final class MembershipView {
      * @return the list of endpoints in the k'th ring.
      */
     List<Endpoint> getRing(final int k) {
-        rwLock.readLock().lock();
-        try {
-            assert k >= 0;
-            return ImmutableList.copyOf(rings.get(k));
-        } finally {
-            rwLock.readLock().unlock();
-        }
+        return snapshot.getRing(k);
     }
 
     /**
@@ -395,26 +294,7 @@ final class MembershipView {
      * @return the indexes k such that {@code subject} is a successor of {@code subject} on ring[k].
      */
     List<Integer> getRingNumbers(final Endpoint observer, final Endpoint subject) {
-        rwLock.readLock().lock();
-        try {
-            // TODO: do this in one scan
-            final List<Endpoint> subjects = getSubjectsOf(observer);
-            if (subjects.isEmpty()) {
-                return Collections.emptyList();
-            }
-
-            final List<Integer> ringIndexes = new ArrayList<>();
-            int ringNumber = 0;
-            for (final Endpoint node: subjects) {
-                if (node.equals(subject)) {
-                    ringIndexes.add(ringNumber);
-                }
-                ringNumber++;
-            }
-            return ringIndexes;
-        } finally {
-            rwLock.readLock().unlock();
-        }
+        return snapshot.getRingNumbers(observer, subject);
     }
 
     /**
@@ -423,21 +303,7 @@ final class MembershipView {
      * @return the number of nodes in the membership.
      */
     int getMembershipSize() {
-        rwLock.readLock().lock();
-        try {
-            return rings.get(0).size();
-        } finally {
-            rwLock.readLock().unlock();
-        }
-    }
-
-    /**
-     * XXX: May not be stable across processes. Verify.
-     */
-    @GuardedBy("rwLock")
-    private void updateCurrentConfigurationId() {
-        currentConfiguration = new Configuration(identifiersSeen, rings.get(0));
-        currentConfigurationId = currentConfiguration.getConfigurationId();
+        return snapshot.getMembershipSize();
     }
 
     /**
@@ -448,16 +314,21 @@ final class MembershipView {
      * @return a {@code Settings} object.
      */
     Configuration getConfiguration() {
-        rwLock.readLock().lock();
+        // Only joiners need the full lists, so they are materialized on demand. This mutates state, and
+        // therefore takes the write lock.
+        rwLock.writeLock().lock();
         try {
-            if (shouldUpdateConfigurationId) {
-                updateCurrentConfigurationId();
-                shouldUpdateConfigurationId = false;
+            Configuration configuration = currentConfiguration;
+            if (configuration == null) {
+                final MembershipSnapshot current = snapshot;
+                configuration = new Configuration(identifiersSeen.copy(), current.getRing(0),
+                                                  current.getConfigurationId());
+                currentConfiguration = configuration;
             }
-            return currentConfiguration;
+            return configuration;
         }
         finally {
-            rwLock.readLock().unlock();
+            rwLock.writeLock().unlock();
         }
     }
 
@@ -468,35 +339,7 @@ final class MembershipView {
      * @return address comparator with ring 0 (and seed 0)
      */
     AddressComparator getRingZeroComparator() {
-        return addressComparators.get(0);
-    }
-
-    private static final class NodeIdComparator implements Comparator<NodeId>, Serializable {
-        private static final long serialVersionUID = -4891729395L;
-        private static final NodeIdComparator INSTANCE = new NodeIdComparator();
-
-        private NodeIdComparator() {
-        }
-
-        @Override
-        public int compare(final NodeId o1, final NodeId o2) {
-            // First, compare high bits
-            if (o1.getHigh() < o2.getHigh()) {
-                return -1;
-            }
-            if (o1.getHigh() > o2.getHigh()) {
-                return 1;
-            }
-            // High bits are equal, so compare low bits
-            if (o1.getLow() < o2.getLow()) {
-                return -1;
-            }
-            if (o1.getLow() > o2.getLow()) {
-                return 1;
-            }
-            // High and low bits are equal
-            return 0;
-        }
+        return addressComparators[0];
     }
 
     static class NodeAlreadyInRingException extends RuntimeException {
@@ -524,12 +367,23 @@ final class MembershipView {
      * to bootstrap an identical MembershipView object.
      */
     static class Configuration {
-        final List<NodeId> nodeIds;
+        final IdentifierSet identifiers; // must not be modified
         final List<Endpoint> endpoints;
+        private final long configurationId;
 
-        public Configuration(final Set<NodeId> nodeIds, final Set<Endpoint> endpoints) {
-            this.nodeIds = ImmutableList.copyOf(nodeIds);
+        public Configuration(final Collection<NodeId> nodeIds, final Collection<Endpoint> endpoints) {
+            this(IdentifierSet.of(nodeIds), endpoints);
+        }
+
+        private Configuration(final IdentifierSet identifiers, final Collection<Endpoint> endpoints) {
+            this(identifiers, endpoints, getConfigurationId(identifiers, endpoints));
+        }
+
+        private Configuration(final IdentifierSet identifiers, final Collection<Endpoint> endpoints,
+                              final long configurationId) {
+            this.identifiers = identifiers;
             this.endpoints = ImmutableList.copyOf(endpoints);
+            this.configurationId = configurationId;
         }
 
         /**
@@ -538,51 +392,63 @@ final class MembershipView {
          * @return a configuration identifier.
          */
         public long getConfigurationId() {
-            return getConfigurationId(this.nodeIds, this.endpoints);
+            return configurationId;
         }
 
-        static long getConfigurationId(final Collection<NodeId> identifiers,
+        /**
+         * The configuration ID depends only on the sets of identifiers and endpoints, not on their order,
+         * which lets a MembershipView maintain it incrementally as nodes are added and removed.
+         */
+        static long getConfigurationId(final IdentifierSet identifiers,
                                        final Collection<Endpoint> endpoints) {
-            long hash = 1;
-            for (final NodeId id: identifiers) {
-                hash = hash * 37 + HASH_FUNCTION.hashLong(id.getHigh());
-                hash = hash * 37 + HASH_FUNCTION.hashLong(id.getLow());
+            long identifiersHash = 0;
+            for (int i = 0; i < identifiers.size(); i++) {
+                identifiersHash += hash(identifiers.highAt(i), identifiers.lowAt(i));
             }
+            long endpointsHash = 0;
             for (final Endpoint endpoint : endpoints) {
-                hash = hash * 37 + HASH_FUNCTION.hashBytes(endpoint.getHostname().asReadOnlyByteBuffer());
-                hash = hash * 37 + HASH_FUNCTION.hashInt(endpoint.getPort());
+                endpointsHash += hash(endpoint);
             }
-            return hash;
+            return combine(identifiersHash, endpointsHash);
+        }
+
+        static long hash(final long identifierHigh, final long identifierLow) {
+            return HASH_FUNCTION.hashLong(identifierHigh) * 37 + HASH_FUNCTION.hashLong(identifierLow);
+        }
+
+        static long hash(final Endpoint endpoint) {
+            return HASH_FUNCTION.hashBytes(endpoint.getHostname().asReadOnlyByteBuffer()) * 37
+                    + HASH_FUNCTION.hashInt(endpoint.getPort());
+        }
+
+        static long combine(final long identifiersHash, final long endpointsHash) {
+            return HASH_FUNCTION.hashLong(identifiersHash) * 37 + HASH_FUNCTION.hashLong(endpointsHash);
         }
     }
 
     /**
-     * Used to order endpoints in the different rings.
+     * Used to order endpoints in the different rings. Hashes are cheap to recompute, so they are not cached.
      */
     static final class AddressComparator implements Comparator<Endpoint>, Serializable {
         private static final long serialVersionUID = -4891729390L;
         private final LongHashFunction hashFunction;
-        private final Map<Endpoint, Long> hashCache;
 
         AddressComparator(final int seed) {
             this.hashFunction = LongHashFunction.xx(seed);
-            this.hashCache = new HashMap<>();
         }
 
         @Override
         public final int compare(final Endpoint c1, final Endpoint c2) {
-            final long hash1 = hashCache.computeIfAbsent(c1, this::computeHash);
-            final long hash2 = hashCache.computeIfAbsent(c2, this::computeHash);
-            return Long.compare(hash1, hash2);
+            final int cmp = Long.compare(hash(c1), hash(c2));
+            return cmp != 0 ? cmp : HashRing.compareEndpoints(c1, c2);
         }
 
-        private long computeHash(final Endpoint endpoint) {
+        /**
+         * The position of {@code endpoint} on the ring that uses this comparator's seed.
+         */
+        long hash(final Endpoint endpoint) {
             return hashFunction.hashBytes(endpoint.getHostname().asReadOnlyByteBuffer()) * 31
                     + hashFunction.hashInt(endpoint.getPort());
         }
-
-        void removeEndpoint(final Endpoint endpoint) {
-            hashCache.remove(endpoint);
-        }
     }
-}
\ No newline at end of file
+}
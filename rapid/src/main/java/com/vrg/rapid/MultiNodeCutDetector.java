@@ -20,13 +20,12 @@ import com.vrg.rapid.pb.AlertMessage;
 
 import javax.annotation.concurrent.GuardedBy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * A filter that outputs a view change proposal about a node only if:
@@ -34,29 +33,48 @@ import java.util.Set;
  * - there is no other node about which there are more than L but less than H reports.
  *
  * The output of this filter gives us almost-everywhere agreement
+ *
+ * Subjects are identified by their {@link NodeIds} id in the current configuration. They are
+ * partitioned into stripes by that id, and each stripe keeps its own report state. Large batches of alerts
+ * are aggregated by all stripes concurrently, and each stripe records the watermark crossings of its subjects.
+ * A single merge step then replays the crossings in batch order and evaluates the proposal condition after
+ * each one, so a batch yields the same proposals as applying its alerts one at a time.
  */
 final class MultiNodeCutDetector {
     private static final int K_MIN = 3;
+    // Below this many reports in a batch, aggregating on the calling thread is cheaper than forking tasks
+    private static final int PARALLEL_THRESHOLD = 512;
     private final int K; // Number of observers per subject and vice versa
     private final int H; // High watermark
     private final int L; // Low watermark
+    private final int wordsPerSubject; // Number of longs holding the K-bit report mask of one subject
     @GuardedBy("lock") private int proposalCount = 0;
     @GuardedBy("lock") private int updatesInProgress = 0;
-    @GuardedBy("lock") private final Map<Endpoint, Map<Integer, Endpoint>> reportsPerHost;
-    @GuardedBy("lock") private final Set<Endpoint> proposal = new HashSet<>();
-    @GuardedBy("lock") private final Set<Endpoint> preProposal = new HashSet<>();
+    private final Stripe[] stripes; // the contents of each stripe are only accessed while holding the lock
+    @GuardedBy("lock") private NodeIds subjectIds = new NodeIds(new EndpointIndex());
     @GuardedBy("lock") private boolean seenLinkDownEvents = false;
     private final Object lock = new Object();
 
     MultiNodeCutDetector(final int K, final int H, final int L) {
+        this(K, H, L, Runtime.getRuntime().availableProcessors());
+    }
+
+    MultiNodeCutDetector(final int K, final int H, final int L, final int numStripes) {
         if (H > K || L > H || K < K_MIN || L <= 0 || H <= 0) {
             throw new IllegalArgumentException("Arguments do not satisfy K > H >= L >= 0:" +
                                                " (K: " + K + ", H: " + H + ", L: " + L);
         }
+        if (numStripes <= 0) {
+            throw new IllegalArgumentException("Number of stripes must be positive: " + numStripes);
+        }
         this.K = K;
         this.H = H;
         this.L = L;
-        this.reportsPerHost = new HashMap<>();
+        this.wordsPerSubject = (K + Long.SIZE - 1) / Long.SIZE;
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe(i);
+        }
     }
 
     int getNumProposals() {
@@ -75,56 +93,142 @@ final class MultiNodeCutDetector {
      */
     List<Endpoint> aggregateForProposal(final AlertMessage msg) {
         Objects.requireNonNull(msg);
-        final ArrayList<Endpoint> proposals = new ArrayList<>();
-        msg.getRingNumberList().forEach(ringNumber ->
-           proposals.addAll(aggregateForProposal(msg.getEdgeSrc(), msg.getEdgeDst(), msg.getEdgeStatus(), ringNumber)));
+        List<Endpoint> proposals = Collections.emptyList();
+        synchronized (lock) {
+            for (int i = 0; i < msg.getRingNumberCount(); i++) {
+                proposals = append(proposals, aggregateForProposal(msg.getEdgeDst(), msg.getEdgeStatus(),
+                                                                   msg.getRingNumber(i)));
+            }
+        }
         return proposals;
     }
 
-    private List<Endpoint> aggregateForProposal(final Endpoint linkSrc, final Endpoint linkDst,
-                                                final EdgeStatus edgeStatus, final int ringNumber) {
-        assert ringNumber <= K;
-
+    /**
+     * Apply a batch of AlertMessages against the cut detector. The result is the same as applying the messages
+     * one at a time in order, and concatenating the proposals that are output along the way. Large batches are
+     * aggregated per subject in parallel across stripes, and the watermark crossings are then replayed in order.
+     *
+     * @param messages AlertMessages to apply against the filter
+     * @return a list of endpoints about which a view change has been recorded. Empty list if there is no proposal.
+     */
+    List<Endpoint> aggregateForProposal(final List<AlertMessage> messages) {
+        Objects.requireNonNull(messages);
         synchronized (lock) {
-            if (edgeStatus == EdgeStatus.DOWN) {
-                seenLinkDownEvents = true;
+            int numReports = 0;
+            for (final AlertMessage msg : messages) {
+                numReports += msg.getRingNumberCount();
+            }
+            if (numReports < PARALLEL_THRESHOLD) {
+                List<Endpoint> proposals = Collections.emptyList();
+                for (final AlertMessage msg : messages) {
+                    for (int i = 0; i < msg.getRingNumberCount(); i++) {
+                        proposals = append(proposals, aggregateForProposal(msg.getEdgeDst(), msg.getEdgeStatus(),
+                                                                           msg.getRingNumber(i)));
+                    }
+                }
+                return proposals;
             }
 
-            final Map<Integer, Endpoint> reportsForHost = reportsPerHost.computeIfAbsent(
-                                                                 linkDst,
-                                                                 k -> new HashMap<>(K));
-
-            if (reportsForHost.containsKey(ringNumber)) {
-                return Collections.emptyList();  // duplicate announcement, ignore.
+            // Subjects are interned up front, so that the stripes only read the interning tables
+            final int[] subjects = new int[messages.size()];
+            for (int i = 0; i < subjects.length; i++) {
+                final AlertMessage msg = messages.get(i);
+                subjects[i] = subjectIds.intern(msg.getEdgeDst());
+                if (msg.getEdgeStatus() == EdgeStatus.DOWN) {
+                    seenLinkDownEvents = true;
+                }
             }
 
-            reportsForHost.put(ringNumber, linkSrc);
-            final int numReportsForHost = reportsForHost.size();
+            // Each task only touches the state of its own stripe. The caller holds the lock throughout, and
+            // sees the tasks' writes once the stream completes.
+            final int numCrossings = IntStream.range(0, stripes.length).parallel()
+                    .map(i -> stripes[i].aggregate(messages, subjects))
+                    .sum();
 
-            if (numReportsForHost == L) {
-                updatesInProgress++;
-                preProposal.add(linkDst);
+            // Single merge step: replay the crossings of all stripes in batch order
+            final long[] crossings = new long[numCrossings];
+            int offset = 0;
+            for (final Stripe stripe : stripes) {
+                System.arraycopy(stripe.crossings, 0, crossings, offset, stripe.crossingCount);
+                offset += stripe.crossingCount;
             }
-
-            if (numReportsForHost == H) {
-                // Enough reports about linkDst have been received that it is safe to act upon,
-                // provided there are no other nodes with L < #reports < H.
-                preProposal.remove(linkDst);
-                proposal.add(linkDst);
-                updatesInProgress--;
-
-                if (updatesInProgress == 0) {
-                    // No outstanding updates, so all nodes that have crossed the H threshold of reports are
-                    // now part of a single proposal.
-                    proposalCount++;
-                    final List<Endpoint> ret = ImmutableList.copyOf(proposal);
-                    proposal.clear();
-                    return ret;
+            Arrays.sort(crossings);
+            List<Endpoint> proposals = Collections.emptyList();
+            for (final long crossing : crossings) {
+                final int subject = (int) ((crossing & 0xFFFFFFFFL) >>> 1);
+                if ((crossing & 1) == 0) {
+                    updatesInProgress++;
+                } else {
+                    proposals = append(proposals, crossedH(subject));
                 }
             }
+            return proposals;
+        }
+    }
 
-            return Collections.emptyList();
+    /**
+     * Records a report about {@code linkDst} on ring {@code ringNumber}. Unless a proposal is output,
+     * this does not allocate.
+     */
+    @GuardedBy("lock")
+    private List<Endpoint> aggregateForProposal(final Endpoint linkDst, final EdgeStatus edgeStatus,
+                                                final int ringNumber) {
+        if (edgeStatus == EdgeStatus.DOWN) {
+            seenLinkDownEvents = true;
+        }
+
+        final int subject = subjectIds.intern(linkDst);
+        final int numReportsForHost = stripes[subject % stripes.length].report(subject, ringNumber);
+
+        if (numReportsForHost == L) {
+            updatesInProgress++;
+        }
+
+        if (numReportsForHost == H) {
+            return crossedH(subject);
         }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Moves {@code subject} into the proposal once it has crossed the H threshold of reports.
+     */
+    @GuardedBy("lock")
+    private List<Endpoint> crossedH(final int subject) {
+        // Enough reports about the subject have been received that it is safe to act upon,
+        // provided there are no other nodes with L < #reports < H.
+        stripes[subject % stripes.length].proposal.set(subject / stripes.length);
+        updatesInProgress--;
+
+        if (updatesInProgress == 0) {
+            return drainProposal();
+        }
+        return Collections.emptyList();
+    }
+
+    private static List<Endpoint> append(final List<Endpoint> proposals, final List<Endpoint> result) {
+        if (result.isEmpty()) {
+            return proposals;
+        }
+        final List<Endpoint> merged = proposals.isEmpty() ? new ArrayList<>(result.size()) : proposals;
+        merged.addAll(result);
+        return merged;
+    }
+
+    /**
+     * No outstanding updates, so all nodes that have crossed the H threshold of reports are
+     * now part of a single proposal.
+     */
+    @GuardedBy("lock")
+    private List<Endpoint> drainProposal() {
+        proposalCount++;
+        final ImmutableList.Builder<Endpoint> builder = ImmutableList.builder();
+        for (final Stripe stripe : stripes) {
+            toEndpoints(stripe, stripe.proposal, builder);
+            stripe.proposal.clear();
+        }
+        return builder.build();
     }
 
     /**
@@ -142,18 +246,25 @@ final class MultiNodeCutDetector {
             }
 
             final List<Endpoint> proposalsToReturn = new ArrayList<>();
-            final List<Endpoint> preProposalCopy = ImmutableList.copyOf(preProposal);
+            final ImmutableList.Builder<Endpoint> preProposalBuilder = ImmutableList.builder();
+            for (final Stripe stripe : stripes) {
+                toEndpoints(stripe, stripe.preProposal, preProposalBuilder);
+            }
+            final List<Endpoint> preProposalCopy = preProposalBuilder.build();
+            // Observers come from the snapshot's adjacency index, and are consistent across all nodes in flux
+            final MembershipSnapshot snapshot = view.getSnapshot();
             for (final Endpoint nodeInFlux: preProposalCopy) {
-                final List<Endpoint> observers = view.isHostPresent(nodeInFlux)
-                                                    ? view.getObserversOf(nodeInFlux)          // For failing nodes
-                                                    : view.getExpectedObserversOf(nodeInFlux); // For joining nodes
+                final boolean isPresent = snapshot.isHostPresent(nodeInFlux);
+                final List<Endpoint> observers = isPresent
+                                                    ? snapshot.getObserversOf(nodeInFlux)          // For failing nodes
+                                                    : snapshot.getExpectedObserversOf(nodeInFlux); // For joining nodes
                 // Account for all edges between nodes that are past the L threshold
                 int ringNumber = 0;
                 for (final Endpoint observer : observers) {
-                    if (proposal.contains(observer) || preProposal.contains(observer)) {
+                    if (isInFlux(observer)) {
                         // Implicit detection of edges between observer and nodeInFlux
-                        final EdgeStatus edgeStatus = view.isHostPresent(nodeInFlux) ? EdgeStatus.DOWN : EdgeStatus.UP;
-                        proposalsToReturn.addAll(aggregateForProposal(observer, nodeInFlux, edgeStatus, ringNumber));
+                        final EdgeStatus edgeStatus = isPresent ? EdgeStatus.DOWN : EdgeStatus.UP;
+                        proposalsToReturn.addAll(aggregateForProposal(nodeInFlux, edgeStatus, ringNumber));
                     }
                     ringNumber++;
                 }
@@ -164,16 +275,143 @@ final class MultiNodeCutDetector {
     }
 
     /**
-     * Clears all view change reports being tracked. To be used right after a view change.
+     * Clears all view change reports being tracked.
      */
     void clear() {
+        clear(new EndpointIndex());
+    }
+
+    /**
+     * Clears all view change reports being tracked, and identifies subjects by their index in {@code members}
+     * from now on. To be used right after a view change, with the new configuration's interning table.
+     *
+     * @param members the interning table of the configuration's members, which must not be modified
+     */
+    void clear(final EndpointIndex members) {
         synchronized (lock) {
-            reportsPerHost.clear();
-            proposal.clear();
+            for (final Stripe stripe : stripes) {
+                stripe.clear();
+            }
+            subjectIds = new NodeIds(members);
             updatesInProgress = 0;
             proposalCount = 0;
-            preProposal.clear();
             seenLinkDownEvents = false;
         }
     }
-}
\ No newline at end of file
+
+    @GuardedBy("lock")
+    private void toEndpoints(final Stripe stripe, final BitSet slots, final ImmutableList.Builder<Endpoint> builder) {
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            builder.add(subjectIds.get(slot * stripes.length + stripe.number));
+        }
+    }
+
+    @GuardedBy("lock")
+    private boolean isInFlux(final Endpoint node) {
+        final int subject = subjectIds.indexOf(node);
+        return subject >= 0 && stripes[subject % stripes.length].isInFlux(subject);
+    }
+
+    /**
+     * The report state of the subjects of one stripe, which are the subjects whose id is congruent to the
+     * stripe's number modulo the number of stripes. Per-subject state is indexed by the subject's slot, its id
+     * divided by the number of stripes. The rings on which a subject has been reported are a K-bit mask,
+     * at reportMasks[slot * wordsPerSubject].
+     *
+     * Stripes are confined to one thread at a time by the enclosing detector's lock.
+     */
+    private final class Stripe {
+        private final int number;
+        private long[] reportMasks = new long[0];
+        private int[] reportCounts = new int[0];
+        private final BitSet proposal = new BitSet(); // indexed by slot
+        private final BitSet preProposal = new BitSet(); // indexed by slot
+        // Watermark crossings recorded by the last aggregate() call, see there
+        private long[] crossings = new long[0];
+        private int crossingCount = 0;
+
+        Stripe(final int number) {
+            this.number = number;
+        }
+
+        /**
+         * Records a report, adding the subject to the pre-proposal set while it is between the watermarks.
+         * The caller moves the subject into the proposal set once it crosses H. Unless the report arrays need
+         * to grow, this does not allocate.
+         *
+         * @return the number of reports about {@code subject} after this one, or -1 if it is a duplicate.
+         */
+        int report(final int subject, final int ringNumber) {
+            assert ringNumber >= 0 && ringNumber < K;
+            assert subject % stripes.length == number;
+            final int slot = subject / stripes.length;
+            if (slot >= reportCounts.length) {
+                final int capacity = Math.max(slot + 1, 2 * reportCounts.length);
+                reportCounts = Arrays.copyOf(reportCounts, capacity);
+                reportMasks = Arrays.copyOf(reportMasks, capacity * wordsPerSubject);
+            }
+
+            final int word = slot * wordsPerSubject + (ringNumber >>> 6);
+            final long bit = 1L << ringNumber; // shifts are taken modulo 64
+            if ((reportMasks[word] & bit) != 0) {
+                return -1;  // duplicate announcement, ignore.
+            }
+            reportMasks[word] |= bit;
+            final int numReportsForHost = ++reportCounts[slot];
+            if (numReportsForHost == L) {
+                preProposal.set(slot);
+            }
+            if (numReportsForHost == H) {
+                preProposal.clear(slot);
+            }
+            return numReportsForHost;
+        }
+
+        /**
+         * Applies the reports in {@code messages} about this stripe's subjects, where {@code subjects[i]}
+         * is the id of the subject of {@code messages.get(i)}. Each watermark crossing is recorded in
+         * {@code crossings} as (message index << 32 | subject << 1 | crossed H), so that sorting the crossings
+         * of all stripes restores batch order, with a subject's L crossing ahead of its H crossing.
+         *
+         * @return the number of crossings recorded.
+         */
+        int aggregate(final List<AlertMessage> messages, final int[] subjects) {
+            crossingCount = 0;
+            for (int m = 0; m < subjects.length; m++) {
+                if (subjects[m] % stripes.length != number) {
+                    continue;
+                }
+                final AlertMessage msg = messages.get(m);
+                for (int i = 0; i < msg.getRingNumberCount(); i++) {
+                    final int numReportsForHost = report(subjects[m], msg.getRingNumber(i));
+                    if (numReportsForHost == L) {
+                        recordCrossing(((long) m << 32) | ((long) subjects[m] << 1));
+                    }
+                    if (numReportsForHost == H) {
+                        recordCrossing(((long) m << 32) | ((long) subjects[m] << 1) | 1);
+                    }
+                }
+            }
+            return crossingCount;
+        }
+
+        private void recordCrossing(final long crossing) {
+            if (crossingCount == crossings.length) {
+                crossings = Arrays.copyOf(crossings, Math.max(16, 2 * crossings.length));
+            }
+            crossings[crossingCount++] = crossing;
+        }
+
+        boolean isInFlux(final int subject) {
+            final int slot = subject / stripes.length;
+            return proposal.get(slot) || preProposal.get(slot);
+        }
+
+        void clear() {
+            Arrays.fill(reportCounts, 0);
+            Arrays.fill(reportMasks, 0L);
+            proposal.clear();
+            preProposal.clear();
+        }
+    }
+}
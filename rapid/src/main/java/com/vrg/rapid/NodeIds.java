@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Dense ids for the nodes that per-configuration protocol state refers to. Members of the configuration are
+ * identified by their index in the configuration's interning table, which is shared read-only by all users of
+ * that configuration (see {@link MembershipSnapshot#getNodeIndex()}). Other nodes, such as joiners, are
+ * interned on first use into a private overflow table, and get ids past the members'.
+ */
+@NotThreadSafe
+final class NodeIds {
+    private final EndpointIndex members;
+    private final EndpointIndex others = new EndpointIndex();
+
+    NodeIds(final EndpointIndex members) {
+        this.members = members;
+    }
+
+    /**
+     * Returns the id of {@code node}, assigning one if it is neither a member nor seen before.
+     */
+    int intern(final Endpoint node) {
+        final int member = members.indexOf(node);
+        return member >= 0 ? member : members.limit() + others.add(node);
+    }
+
+    /**
+     * Returns the id of {@code node}, or -1 if it is neither a member nor has been interned.
+     */
+    int indexOf(final Endpoint node) {
+        final int member = members.indexOf(node);
+        if (member >= 0) {
+            return member;
+        }
+        final int other = others.indexOf(node);
+        return other >= 0 ? members.limit() + other : -1;
+    }
+
+    @Nullable
+    Endpoint get(final int id) {
+        return id < members.limit() ? members.get(id) : others.get(id - members.limit());
+    }
+
+    /**
+     * An upper bound (exclusive) on the ids currently in use, suitable for sizing arrays indexed by node.
+     */
+    int limit() {
+        return members.limit() + others.limit();
+    }
+}
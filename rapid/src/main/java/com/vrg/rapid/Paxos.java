@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -65,7 +66,8 @@ class Paxos {
     private Rank vrnd;
     private List<Endpoint> vval;
     private final List<Phase1bMessage> phase1bMessages = new ArrayList<>();
-    private final Map<Rank, Map<Endpoint, Phase2bMessage>> acceptResponses = new HashMap<>();
+    private final NodeIds acceptors;
+    private final Map<Rank, BitSet> acceptResponses = new HashMap<>(); // acceptors that voted in a round
 
     private Rank crnd;
     private List<Endpoint> cval;
@@ -73,11 +75,13 @@ class Paxos {
     private final Consumer<List<Endpoint>> onDecide;
     private boolean decided = false;
 
-    public Paxos(final Endpoint myAddr, final long configurationId, final int N, final IMessagingClient client,
-                 final IBroadcaster broadcaster, final Consumer<List<Endpoint>> onDecide) {
+    public Paxos(final Endpoint myAddr, final long configurationId, final EndpointIndex members,
+                 final IMessagingClient client, final IBroadcaster broadcaster,
+                 final Consumer<List<Endpoint>> onDecide) {
         this.myAddr = myAddr;
         this.configurationId = configurationId;
-        this.N = N;
+        this.acceptors = new NodeIds(members);
+        this.N = members.size();
         this.broadcaster = broadcaster;
 
         this.crnd = Rank.newBuilder().setRound(0).setNodeIndex(0).build();
@@ -225,13 +229,15 @@ class Paxos {
             return;
         }
         LOG.trace("Received phase2bMessage: {}", Utils.loggable(phase2bMessage.getSender()));
-        final Map<Endpoint, Phase2bMessage> phase2bMessagesInRnd =
-                acceptResponses.computeIfAbsent(phase2bMessage.getRnd(), (k) -> new HashMap<>());
-        phase2bMessagesInRnd.put(phase2bMessage.getSender(), phase2bMessage);
-        if (phase2bMessagesInRnd.size() > (N / 2) && !decided) {
+        final int acceptor = acceptors.intern(phase2bMessage.getSender());
+        final BitSet phase2bMessagesInRnd =
+                acceptResponses.computeIfAbsent(phase2bMessage.getRnd(), (k) -> new BitSet(acceptors.limit()));
+        phase2bMessagesInRnd.set(acceptor);
+        final int votesInRnd = phase2bMessagesInRnd.cardinality();
+        if (votesInRnd > (N / 2) && !decided) {
             final List<Endpoint> decision = phase2bMessage.getEndpointsList();
             LOG.debug("{} decided on: {} for rnd {} {}", Utils.loggable(myAddr), Utils.loggable(decision),
-                      Utils.loggable(phase2bMessage.getRnd()), phase2bMessagesInRnd.size());
+                      Utils.loggable(phase2bMessage.getRnd()), votesInRnd);
             onDecide.accept(decision);
             decided = true;
         }
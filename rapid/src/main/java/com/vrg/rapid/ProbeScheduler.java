@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the edge failure detectors of a node from a single timer wheel. The failure detector interval is
+ * divided into slots, one per tick, and every subject is assigned to a slot, so that each detector runs
+ * once per interval and the probes of a node are spread across the interval instead of being sent in one
+ * burst. New subjects go to the least loaded slot, with ties broken at random. Each tick runs its slot after
+ * a random offset within the tick, so that nodes whose ticks happen to line up do not probe in lockstep.
+ *
+ * The wheel is kept across view changes: subjects that remain keep their slot, subjects that are gone are
+ * dropped, and only new subjects are assigned a slot. Ticks read an immutable copy of the wheel, so a
+ * detector never runs while holding the scheduler's lock.
+ */
+@ThreadSafe
+final class ProbeScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(ProbeScheduler.class);
+    private static final int TICKS_PER_INTERVAL = 10;
+    private final ScheduledExecutorService executor;
+    private final ScheduledFuture<?> tickJob;
+    private final long tickInNs;
+    private final int numSlots;
+    @GuardedBy("this") private final Map<Endpoint, Integer> slotOf = new HashMap<>();
+    @GuardedBy("this") private final int[] slotLoad;
+    // Detectors per slot, replaced as a whole whenever the subjects change
+    private volatile Runnable[][] wheel;
+    private volatile boolean isShutdown = false;
+    // Only accessed by the tick job
+    private int nextSlot = 0;
+
+    ProbeScheduler(final ScheduledExecutorService executor, final int intervalInMs) {
+        final int tickInMs = Math.max(1, intervalInMs / TICKS_PER_INTERVAL);
+        this.executor = executor;
+        this.tickInNs = TimeUnit.MILLISECONDS.toNanos(tickInMs);
+        this.numSlots = Math.max(1, intervalInMs / tickInMs);
+        this.slotLoad = new int[numSlots];
+        this.wheel = new Runnable[numSlots][0];
+        this.tickJob = executor.scheduleAtFixedRate(this::tick, tickInMs, tickInMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the set of monitored subjects and their failure detectors.
+     *
+     * @param detectors the failure detector to run for each subject
+     */
+    synchronized void setDetectors(final Map<Endpoint, Runnable> detectors) {
+        slotOf.entrySet().removeIf(entry -> {
+            if (!detectors.containsKey(entry.getKey())) {
+                slotLoad[entry.getValue()]--;
+                return true;
+            }
+            return false;
+        });
+        final List<List<Runnable>> slots = new ArrayList<>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            slots.add(new ArrayList<>());
+        }
+        detectors.forEach((subject, detector) -> {
+            final int slot = slotOf.computeIfAbsent(subject, k -> {
+                final int assigned = leastLoadedSlot();
+                slotLoad[assigned]++;
+                return assigned;
+            });
+            slots.get(slot).add(detector);
+        });
+        final Runnable[][] newWheel = new Runnable[numSlots][];
+        for (int i = 0; i < numSlots; i++) {
+            newWheel[i] = slots.get(i).toArray(new Runnable[0]);
+        }
+        wheel = newWheel;
+    }
+
+    /**
+     * Stops running all failure detectors until the next call to setDetectors(). Subjects keep their
+     * slots, so that a view change does not reshuffle the probe schedule.
+     */
+    synchronized void pause() {
+        wheel = new Runnable[numSlots][0];
+    }
+
+    void shutdown() {
+        isShutdown = true;
+        tickJob.cancel(true);
+    }
+
+    @GuardedBy("this")
+    private int leastLoadedSlot() {
+        final int start = ThreadLocalRandom.current().nextInt(numSlots);
+        int best = start;
+        for (int i = 1; i < numSlots; i++) {
+            final int slot = (start + i) % numSlots;
+            if (slotLoad[slot] < slotLoad[best]) {
+                best = slot;
+            }
+        }
+        return best;
+    }
+
+    private void tick() {
+        final int slot = nextSlot;
+        nextSlot = (nextSlot + 1) % numSlots;
+        executor.schedule(() -> runSlot(slot), ThreadLocalRandom.current().nextLong(tickInNs),
+                          TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs the detectors of a slot. The wheel is read only now, so that detectors removed or paused since
+     * the tick do not run.
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    private void runSlot(final int slot) {
+        if (isShutdown) {
+            return;
+        }
+        final Runnable[] batch = wheel[slot];
+        for (final Runnable detector : batch) {
+            try {
+                detector.run();
+            } catch (final RuntimeException e) {
+                // A failing detector must not stop the tick job, and with it every other detector
+                LOG.error("Failure detector threw an exception", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.vrg.rapid.messaging.IBroadcaster;
+import com.vrg.rapid.messaging.IMessagingClient;
+import com.vrg.rapid.pb.Endpoint;
+import com.vrg.rapid.pb.RapidRequest;
+import com.vrg.rapid.pb.RapidResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Best-effort broadcaster that sends each message to this node and to a fresh random sample of
+ * {@code fanout} other members. Used to relay alert batches: every node forwards each alert it has not
+ * seen before exactly once, so an alert reaches all members with high probability when the fanout is
+ * in the order of ln(N), at a cost of O(N * fanout) messages instead of O(N^2).
+ */
+final class RelayBroadcaster implements IBroadcaster {
+    private static final Logger LOG = LoggerFactory.getLogger(RelayBroadcaster.class);
+    private final IMessagingClient messagingClient;
+    private final Endpoint myAddr;
+    private final int fanout;
+    private Endpoint[] others = new Endpoint[0];
+    private boolean isMember = false;
+
+    RelayBroadcaster(final IMessagingClient messagingClient, final Endpoint myAddr, final int fanout) {
+        if (fanout <= 0) {
+            throw new IllegalArgumentException("Relay fanout must be positive: " + fanout);
+        }
+        this.messagingClient = messagingClient;
+        this.myAddr = myAddr;
+        this.fanout = fanout;
+    }
+
+    @Override
+    @CanIgnoreReturnValue
+    public synchronized List<ListenableFuture<RapidResponse>> broadcast(final RapidRequest msg) {
+        final int sampleSize = Math.min(fanout, others.length);
+        final List<ListenableFuture<RapidResponse>> futures = new ArrayList<>(sampleSize + 1);
+        if (isMember) {
+            futures.add(messagingClient.sendMessageBestEffort(myAddr, msg));
+        }
+        // Partial Fisher-Yates shuffle: the first sampleSize entries become a uniform random sample
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < sampleSize; i++) {
+            final int j = i + random.nextInt(others.length - i);
+            final Endpoint recipient = others[j];
+            others[j] = others[i];
+            others[i] = recipient;
+            futures.add(messagingClient.sendMessageBestEffort(recipient, msg));
+        }
+        return futures;
+    }
+
+    @Override
+    public synchronized void setMembership(final List<Endpoint> recipients) {
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("setMembership {}", Utils.loggable(recipients));
+        }
+        this.isMember = recipients.contains(myAddr);
+        this.others = recipients.stream().filter(node -> !node.equals(myAddr)).toArray(Endpoint[]::new);
+    }
+}
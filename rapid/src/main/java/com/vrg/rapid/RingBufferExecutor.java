@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-threaded executor whose tasks are handed over through a preallocated ring buffer, in the
+ * style of the LMAX Disruptor. Producers (the messaging threads) claim a sequence number with a single
+ * atomic increment and publish their task into the matching slot. The one consumer thread runs all
+ * published tasks in sequence order, draining as many as are available before it publishes its progress,
+ * and only parks once the ring is empty. Unlike a LinkedBlockingQueue, neither side takes a lock and no
+ * queue node is allocated per task. The tasks themselves are still lambdas, and the responses to the
+ * requests they process are still futures of their own (see {@link MembershipService#handleMessage}).
+ *
+ * A producer that finds the ring full waits until the consumer frees a slot, which bounds the memory used
+ * by a backlog of protocol messages. It parks for exponentially longer periods, up to a millisecond, rather
+ * than spinning. Tasks submitted by the consumer thread itself bypass the ring, since that thread could
+ * otherwise wait on itself. They remember how many sequence numbers had been claimed when they were
+ * submitted, and run only once the consumer has run every ring task claimed before them, so that all tasks
+ * run in the order they were submitted. A task that throws is logged, and the consumer thread moves on to
+ * the next task.
+ */
+@ThreadSafe
+final class RingBufferExecutor extends AbstractExecutorService {
+    private static final Logger LOG = LoggerFactory.getLogger(RingBufferExecutor.class);
+    private static final int SPINS_BEFORE_PARK = 100;
+    // Bounds of the back-off of a producer that waits for a free slot
+    private static final long MIN_PRODUCER_PARK_NANOS = 1_000;
+    private static final long MAX_PRODUCER_PARK_NANOS = 1_000_000;
+    private final AtomicReferenceArray<Runnable> slots;
+    private final int mask;
+    // Next sequence number to be claimed by a producer
+    private final AtomicLong claimed = new AtomicLong(0);
+    // Every sequence number below this one has been taken out of the ring by the consumer
+    private final AtomicLong consumed = new AtomicLong(0);
+    private final Thread consumer;
+    // Tasks submitted by the consumer thread, each with the number of sequence numbers claimed before it.
+    // Only accessed by the consumer thread.
+    private final ArrayDeque<Runnable> localTasks = new ArrayDeque<>();
+    private long[] localBarriers = new long[16];
+    private int localBarriersHead = 0;
+    private volatile boolean consumerParked = false;
+    private volatile boolean isShutdown = false;
+
+    RingBufferExecutor(final int capacity, final ThreadFactory threadFactory) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.consumer = threadFactory.newThread(this::consume);
+        this.consumer.start();
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (isShutdown) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        if (Thread.currentThread() == consumer) {
+            addLocal(task);
+            return;
+        }
+        final long sequence = claimed.getAndIncrement();
+        long parkNanos = MIN_PRODUCER_PARK_NANOS;
+        while (sequence - consumed.get() > mask) {
+            // The ring is full: wait for the consumer to free our slot
+            if (isShutdown) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(2 * parkNanos, MAX_PRODUCER_PARK_NANOS);
+        }
+        slots.set(index(sequence), task);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void consume() {
+        long cursor = 0;
+        int spins = 0;
+        while (!isShutdown) {
+            runLocalTasks(cursor);
+            final int index = index(cursor);
+            Runnable task = slots.get(index);
+            if (task == null) {
+                if (spins++ < SPINS_BEFORE_PARK) {
+                    Thread.yield();
+                    continue;
+                }
+                consumerParked = true;
+                // Re-check after announcing that we park, so that a concurrent publish is not missed
+                if (slots.get(index) == null && !isShutdown) {
+                    LockSupport.park(this);
+                }
+                consumerParked = false;
+                spins = 0;
+                continue;
+            }
+            spins = 0;
+            // Drain the batch of consecutive published tasks
+            do {
+                slots.lazySet(index(cursor), null);
+                cursor++;
+                run(task);
+                runLocalTasks(cursor);
+                task = slots.get(index(cursor));
+            } while (task != null && !isShutdown);
+            consumed.lazySet(cursor);
+        }
+    }
+
+    private int index(final long sequence) {
+        return (int) sequence & mask;
+    }
+
+    private void addLocal(final Runnable task) {
+        final int size = localTasks.size();
+        if (size == localBarriers.length) {
+            final long[] grown = new long[2 * size];
+            for (int i = 0; i < size; i++) {
+                grown[i] = localBarriers[(localBarriersHead + i) % size];
+            }
+            localBarriers = grown;
+            localBarriersHead = 0;
+        }
+        localBarriers[(localBarriersHead + size) % localBarriers.length] = claimed.get();
+        localTasks.add(task);
+    }
+
+    /**
+     * Runs the tasks submitted by the consumer thread that no unconsumed ring task was claimed before.
+     * The barriers are non-decreasing, so this stops at the first task that must wait.
+     */
+    private void runLocalTasks(final long cursor) {
+        while (!localTasks.isEmpty() && localBarriers[localBarriersHead] <= cursor) {
+            localBarriersHead = (localBarriersHead + 1) % localBarriers.length;
+            run(localTasks.poll());
+        }
+    }
+
+    @SuppressWarnings("checkstyle:illegalcatch")
+    private void run(final Runnable task) {
+        try {
+            task.run();
+        } catch (final Throwable e) {
+            // This is the only protocol thread, so it must survive errors as well as exceptions
+            LOG.error("Protocol task failed", e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        isShutdown = true;
+        LockSupport.unpark(consumer);
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        consumer.interrupt();
+        final List<Runnable> pending = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            final Runnable task = slots.getAndSet(i, null);
+            if (task != null) {
+                pending.add(task);
+            }
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return isShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return isShutdown && !consumer.isAlive();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        consumer.join(Math.max(1, unit.toMillis(timeout)));
+        return isTerminated();
+    }
+}
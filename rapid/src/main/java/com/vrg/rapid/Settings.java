@@ -26,7 +26,17 @@ public final class Settings implements GrpcClient.ISettings, MembershipService.I
     private int grpcProbeTimeoutMs = GrpcClient.DEFAULT_GRPC_PROBE_TIMEOUT;
     private int failureDetectorIntervalInMs = MembershipService.DEFAULT_FAILURE_DETECTOR_INTERVAL_IN_MS;
     private int batchingWindowInMs = MembershipService.BATCHING_WINDOW_IN_MS;
+    private int maxAlertBatchSize = MembershipService.DEFAULT_MAX_ALERT_BATCH_SIZE;
+    private int maxAlertBatchDelayInMs = MembershipService.DEFAULT_MAX_ALERT_BATCH_DELAY_IN_MS;
+    private int alertRelayFanout = MembershipService.DEFAULT_ALERT_RELAY_FANOUT;
     private long consensusFallbackTimeoutBaseDelayInMs = FastPaxos.BASE_DELAY;
+    private boolean usePassiveLiveness = false;
+    private boolean useUdpHeartbeats = false;
+    private boolean usePhiAccrualFailureDetector = false;
+    private boolean useIndirectProbes = false;
+    private int failureDetectorMaxIntervalInMs = 0;
+    private int failureDetectorSuspectIntervalInMs = 0;
+    private boolean coalesceViewChanges = false;
 
     /*
      * Settings from GrpcClient.ISettings
@@ -98,6 +108,132 @@ public final class Settings implements GrpcClient.ISettings, MembershipService.I
         this.batchingWindowInMs = batchingWindowInMs;
     }
 
+    @Override
+    public int getMaxAlertBatchSize() {
+        return this.maxAlertBatchSize;
+    }
+
+    public void setMaxAlertBatchSize(final int maxAlertBatchSize) {
+        this.maxAlertBatchSize = maxAlertBatchSize;
+    }
+
+    @Override
+    public int getMaxAlertBatchDelayInMs() {
+        return this.maxAlertBatchDelayInMs;
+    }
+
+    public void setMaxAlertBatchDelayInMs(final int maxAlertBatchDelayInMs) {
+        this.maxAlertBatchDelayInMs = maxAlertBatchDelayInMs;
+    }
+
+    @Override
+    public int getAlertRelayFanout() {
+        return this.alertRelayFanout;
+    }
+
+    public void setAlertRelayFanout(final int alertRelayFanout) {
+        this.alertRelayFanout = alertRelayFanout;
+    }
+
+    /**
+     * Whether the default failure detector skips probes to subjects that have sent us a message within the
+     * last failure detector interval. Has no effect when a failure detector factory is supplied.
+     */
+    public boolean getUsePassiveLiveness() {
+        return usePassiveLiveness;
+    }
+
+    public void setUsePassiveLiveness(final boolean usePassiveLiveness) {
+        this.usePassiveLiveness = usePassiveLiveness;
+    }
+
+    /**
+     * Whether the default failure detector exchanges heartbeats over UDP instead of sending probes through
+     * the messaging client. All nodes of a cluster must agree on this setting. Has no effect when a failure
+     * detector factory is supplied.
+     */
+    public boolean getUseUdpHeartbeats() {
+        return useUdpHeartbeats;
+    }
+
+    public void setUseUdpHeartbeats(final boolean useUdpHeartbeats) {
+        this.useUdpHeartbeats = useUdpHeartbeats;
+    }
+
+    /**
+     * Whether the default failure detector reports a subject once the phi-accrual suspicion level of its probe
+     * responses crosses a threshold, instead of after a fixed number of failed probes. Has no effect when UDP
+     * heartbeats are used or when a failure detector factory is supplied.
+     */
+    public boolean getUsePhiAccrualFailureDetector() {
+        return usePhiAccrualFailureDetector;
+    }
+
+    public void setUsePhiAccrualFailureDetector(final boolean usePhiAccrualFailureDetector) {
+        this.usePhiAccrualFailureDetector = usePhiAccrualFailureDetector;
+    }
+
+    /**
+     * Whether the default failure detector asks a few other members to probe a subject that did not answer
+     * a direct probe, and waits longer before reporting subjects while this node itself looks unhealthy.
+     * Has no effect when UDP heartbeats or the phi-accrual failure detector are used, or when a failure
+     * detector factory is supplied.
+     */
+    public boolean getUseIndirectProbes() {
+        return useIndirectProbes;
+    }
+
+    public void setUseIndirectProbes(final boolean useIndirectProbes) {
+        this.useIndirectProbes = useIndirectProbes;
+    }
+
+    /**
+     * The longest interval between probes of the default failure detector to a subject that keeps answering.
+     * Probes to such subjects back off from the failure detector interval up to this bound, and return to the
+     * failure detector interval after a failed probe. If this is not larger than the failure detector interval
+     * (the default), subjects are probed at a fixed rate. Has no effect when a failure detector factory is
+     * supplied.
+     *
+     * Backing off delays the first failed probe to a subject that fails while stable, so on its own it adds
+     * up to (max interval - failure detector interval) to the detection latency. Set a suspect interval to
+     * make up for it.
+     */
+    public int getFailureDetectorMaxIntervalInMs() {
+        return failureDetectorMaxIntervalInMs;
+    }
+
+    public void setFailureDetectorMaxIntervalInMs(final int failureDetectorMaxIntervalInMs) {
+        this.failureDetectorMaxIntervalInMs = failureDetectorMaxIntervalInMs;
+    }
+
+    /**
+     * When positive, every failed probe of the default failure detector is followed by another probe after
+     * this many milliseconds, until the subject answers or is reported, in addition to the probes at the
+     * failure detector interval. The default detector reports a subject after 10 consecutive failed probes,
+     * so with a max interval of P failure detector intervals T, a suspect interval of at most
+     * (10 - P) * T / 9 keeps the worst-case detection latency, not counting probe timeouts, within that of
+     * fixed-rate probing. Has no effect when a failure detector factory is supplied, or with UDP heartbeats.
+     */
+    public int getFailureDetectorSuspectIntervalInMs() {
+        return failureDetectorSuspectIntervalInMs;
+    }
+
+    public void setFailureDetectorSuspectIntervalInMs(final int failureDetectorSuspectIntervalInMs) {
+        this.failureDetectorSuspectIntervalInMs = failureDetectorSuspectIntervalInMs;
+    }
+
+    /**
+     * Whether a subscriber that falls behind receives one VIEW_CHANGE event for several consecutive view
+     * changes, carrying the latest membership and the deltas of all of them, instead of every intermediate view.
+     */
+    public boolean getCoalesceViewChanges() {
+        return coalesceViewChanges;
+    }
+
+    public void setCoalesceViewChanges(final boolean coalesceViewChanges) {
+        this.coalesceViewChanges = coalesceViewChanges;
+    }
+
     /*
      * Settings from FastPaxos.ISettings
      */
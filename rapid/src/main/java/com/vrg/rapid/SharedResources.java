@@ -14,6 +14,7 @@
 package com.vrg.rapid;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vrg.rapid.monitoring.PeerActivityTracker;
 import com.vrg.rapid.pb.Endpoint;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -37,12 +38,15 @@ import java.util.concurrent.TimeUnit;
 public class SharedResources {
     private static final Logger LOG = LoggerFactory.getLogger(SharedResources.class);
     private static final int DEFAULT_THREADS = 1;
+    private static final int PROTOCOL_RING_BUFFER_SIZE = 1 << 14;
     @Nullable private EventLoopGroup eventLoopGroup = null;
     private final ExecutorService backgroundExecutor;
     private final ExecutorService serverExecutor;
     private final ExecutorService clientChannelExecutor;
     private final ExecutorService protocolExecutor;
+    private final ExecutorService subscriptionExecutor;
     private final ScheduledExecutorService scheduledTasksExecutor;
+    private final PeerActivityTracker peerActivityTracker = new PeerActivityTracker();
     private final Endpoint address;
 
     public SharedResources(final Endpoint address) {
@@ -50,7 +54,9 @@ public class SharedResources {
         this.serverExecutor = newNamedThreadPool(DEFAULT_THREADS, "server-exec", address);
         this.clientChannelExecutor = newNamedThreadPool(DEFAULT_THREADS, "client-exec", address);
         this.backgroundExecutor = newNamedThreadPool(DEFAULT_THREADS, "bg", address);
-        this.protocolExecutor = Executors.newSingleThreadExecutor(newNamedThreadFactory("protocol", address));
+        this.protocolExecutor = new RingBufferExecutor(PROTOCOL_RING_BUFFER_SIZE,
+                                                       newNamedThreadFactory("protocol", address));
+        this.subscriptionExecutor = newNamedThreadPool(DEFAULT_THREADS, "subscriptions", address);
         this.scheduledTasksExecutor = Executors.newSingleThreadScheduledExecutor(
                                                     newNamedThreadFactory("msbg", address));
     }
@@ -88,12 +94,20 @@ public class SharedResources {
     }
 
     /**
-     * Executes the protocol logic in MembershipService.
+     * Executes the protocol logic in MembershipService. Tasks are handed to its single thread through a
+     * ring buffer.
      */
     public ExecutorService getProtocolExecutor() {
         return protocolExecutor;
     }
 
+    /**
+     * Runs the application's subscription callbacks, off the protocol thread.
+     */
+    public ExecutorService getSubscriptionExecutor() {
+        return subscriptionExecutor;
+    }
+
     /**
      * Executes periodic background tasks in MembershipService.
      */
@@ -101,12 +115,21 @@ public class SharedResources {
         return scheduledTasksExecutor;
     }
 
+    /**
+     * Records when each peer was last heard from, for failure detectors that use passive liveness.
+     */
+    public PeerActivityTracker getPeerActivityTracker() {
+        return peerActivityTracker;
+    }
+
     /**
      * Shuts down resources.
      */
     synchronized void shutdown() {
         serverExecutor.shutdownNow();
         protocolExecutor.shutdownNow();
+        // Lets queued events, including the completion of delta subscriptions, be delivered
+        subscriptionExecutor.shutdown();
         clientChannelExecutor.shutdownNow();
         backgroundExecutor.shutdownNow();
         if (eventLoopGroup != null) {
@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Delivers cluster events to application subscriptions on an executor of their own, so that a slow
+ * subscriber cannot hold up the protocol. Every subscriber has its own queue, and receives its events in
+ * the order in which they were published. A callback registered for several event types shares one queue.
+ *
+ * Events are only built when the event type has subscribers. With coalescing enabled, a VIEW_CHANGE event
+ * that is still queued when the next one arrives is merged with it: the subscriber receives the latest
+ * configuration with the deltas of both events, in order.
+ */
+@ThreadSafe
+final class SubscriptionDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SubscriptionDispatcher.class);
+    // Events delivered to one subscriber before it yields the executor to other subscribers
+    private static final int MAX_EVENTS_PER_RUN = 16;
+    private final Executor executor;
+    private final boolean coalesceViewChanges;
+    private final Map<ClusterEvents, List<Subscriber>> subscribers = new EnumMap<>(ClusterEvents.class);
+    @GuardedBy("this") private final Map<Consumer<ClusterStatusChange>, Subscriber> subscriberOf =
+            new IdentityHashMap<>();
+
+    SubscriptionDispatcher(final Executor executor, final boolean coalesceViewChanges) {
+        this.executor = executor;
+        this.coalesceViewChanges = coalesceViewChanges;
+        Arrays.stream(ClusterEvents.values()).forEach(event ->
+                subscribers.put(event, new CopyOnWriteArrayList<>()));
+    }
+
+    /**
+     * Registers {@code callback} for events of type {@code event}.
+     */
+    synchronized void register(final ClusterEvents event, final Consumer<ClusterStatusChange> callback) {
+        subscribers.get(event).add(subscriberOf.computeIfAbsent(callback, Subscriber::new));
+    }
+
+    /**
+     * Queues an event for all subscribers of {@code event}. The event is built by {@code eventSupplier}, which
+     * is invoked only if there are subscribers.
+     */
+    void publish(final ClusterEvents event, final Supplier<ClusterStatusChange> eventSupplier) {
+        final List<Subscriber> targets = subscribers.get(event);
+        if (targets.isEmpty()) {
+            return;
+        }
+        final ClusterStatusChange change = eventSupplier.get();
+        for (final Subscriber subscriber : targets) {
+            subscriber.enqueue(event, change);
+        }
+    }
+
+    private static final class PendingEvent {
+        private final ClusterEvents event;
+        private final ClusterStatusChange change;
+
+        PendingEvent(final ClusterEvents event, final ClusterStatusChange change) {
+            this.event = event;
+            this.change = change;
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+        private final Consumer<ClusterStatusChange> callback;
+        @GuardedBy("this") private final ArrayDeque<PendingEvent> queue = new ArrayDeque<>();
+        // Whether a run() of this subscriber is submitted to the executor
+        @GuardedBy("this") private boolean isScheduled = false;
+
+        Subscriber(final Consumer<ClusterStatusChange> callback) {
+            this.callback = callback;
+        }
+
+        void enqueue(final ClusterEvents event, final ClusterStatusChange change) {
+            synchronized (this) {
+                final PendingEvent last = queue.peekLast();
+                if (coalesceViewChanges && event == ClusterEvents.VIEW_CHANGE
+                        && last != null && last.event == ClusterEvents.VIEW_CHANGE) {
+                    queue.pollLast();
+                    queue.addLast(new PendingEvent(event, merge(last.change, change)));
+                } else {
+                    queue.addLast(new PendingEvent(event, change));
+                }
+                if (isScheduled) {
+                    return;
+                }
+                isScheduled = true;
+            }
+            executor.execute(this);
+        }
+
+        @SuppressWarnings("checkstyle:illegalcatch")
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_EVENTS_PER_RUN; i++) {
+                final PendingEvent pending;
+                synchronized (this) {
+                    pending = queue.pollFirst();
+                    if (pending == null) {
+                        isScheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    callback.accept(pending.change);
+                } catch (final RuntimeException e) {
+                    // A failing callback must not stop the delivery of later events
+                    LOG.error("Subscription callback for {} threw an exception", pending.event, e);
+                }
+            }
+            // Let other subscribers run before delivering the rest of our queue
+            executor.execute(this);
+        }
+    }
+
+    private static ClusterStatusChange merge(final ClusterStatusChange older, final ClusterStatusChange newer) {
+        final List<NodeStatusChange> delta = new ArrayList<>(older.getDelta().size() + newer.getDelta().size());
+        delta.addAll(older.getDelta());
+        delta.addAll(newer.getDelta());
+        return new ClusterStatusChange(newer.getConfigurationId(), newer.getMembership(), delta);
+    }
+}
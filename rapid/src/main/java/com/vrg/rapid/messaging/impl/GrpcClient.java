@@ -223,7 +223,9 @@ public class GrpcClient implements IMessagingClient {
     private int getTimeoutForMessageMs(final RapidRequest msg) {
         switch (msg.getContentCase()) {
             case PROBEMESSAGE:
-                return settings.getGrpcProbeTimeoutMs();
+                // An indirect probe waits for the helper's own probe of the target
+                return msg.getProbeMessage().hasTarget() ? 2 * settings.getGrpcProbeTimeoutMs()
+                                                         : settings.getGrpcProbeTimeoutMs();
             case JOINMESSAGE:
                 return settings.getGrpcJoinTimeoutMs();
             default:
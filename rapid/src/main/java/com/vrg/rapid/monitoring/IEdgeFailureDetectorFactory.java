@@ -16,19 +16,36 @@ package com.vrg.rapid.monitoring;
 import com.vrg.rapid.pb.Endpoint;
 import io.grpc.ExperimentalApi;
 
+import java.util.List;
+
 /**
  * The EdgeFailureDetector interface. Implementations of this interface can be
  * supplied to the MembershipService to perform failure detection.
  **
  * On every configuration change, createInstance() is invoked by the membership
- * service at a node to instantiate new monitoring edges to its subjects.
+ * service at a node to instantiate monitoring edges to its new subjects. Instances
+ * for subjects that the node already monitored are kept, so an instance may run
+ * across several configurations. An instance that has executed its notifier is
+ * replaced at the next configuration change.
  *
  * createInstance() must return a runnable that is expected to be periodically
  * executed.
  *
  * To mark an edge faulty, simply execute notifier.run().
+ *
+ * Before the instances for a configuration are created, onMembershipChange() is invoked
+ * with the members of that configuration, for detectors that enlist other members.
+ *
+ * shutdown() is invoked when the membership service shuts down, for factories that hold
+ * resources such as sockets.
  */
 @ExperimentalApi
 public interface IEdgeFailureDetectorFactory {
     Runnable createInstance(final Endpoint subject, final Runnable notifier);
+
+    default void onMembershipChange(final List<Endpoint> membership) {
+    }
+
+    default void shutdown() {
+    }
 }
\ No newline at end of file
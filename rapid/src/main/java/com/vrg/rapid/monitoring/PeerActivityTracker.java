@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring;
+
+import com.vrg.rapid.pb.Endpoint;
+import io.grpc.ExperimentalApi;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records when a node last received a message from each of its peers. Any inbound request is evidence
+ * that its sender is alive, so failure detectors can use this to skip active probes of subjects that
+ * have been heard from recently.
+ */
+@ExperimentalApi
+@ThreadSafe
+public final class PeerActivityTracker {
+    private final ConcurrentHashMap<Endpoint, AtomicLong> lastHeardNanos = new ConcurrentHashMap<>();
+
+    /**
+     * Records that a message from {@code peer} was just received.
+     */
+    public void recordActivity(final Endpoint peer) {
+        final long now = System.nanoTime();
+        final AtomicLong lastHeard = lastHeardNanos.get(peer);
+        if (lastHeard != null) {
+            lastHeard.lazySet(now);
+        } else {
+            lastHeardNanos.computeIfAbsent(peer, k -> new AtomicLong()).lazySet(now);
+        }
+    }
+
+    /**
+     * Returns true if a message from {@code peer} was received in the last {@code windowMs} milliseconds.
+     */
+    public boolean heardWithin(final Endpoint peer, final long windowMs) {
+        final AtomicLong lastHeard = lastHeardNanos.get(peer);
+        return lastHeard != null && System.nanoTime() - lastHeard.get() < TimeUnit.MILLISECONDS.toNanos(windowMs);
+    }
+
+    /**
+     * Forgets all peers that are not in {@code peers}.
+     */
+    public void retainAll(final Collection<Endpoint> peers) {
+        lastHeardNanos.keySet().retainAll(peers);
+    }
+}
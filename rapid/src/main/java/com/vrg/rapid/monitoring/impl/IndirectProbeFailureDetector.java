@@ -0,0 +1,272 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring.impl;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vrg.rapid.messaging.IMessagingClient;
+import com.vrg.rapid.monitoring.IEdgeFailureDetectorFactory;
+import com.vrg.rapid.pb.Endpoint;
+import com.vrg.rapid.pb.NodeStatus;
+import com.vrg.rapid.pb.ProbeMessage;
+import com.vrg.rapid.pb.RapidRequest;
+import com.vrg.rapid.pb.RapidResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A SWIM-style failure detector with Lifeguard's local health awareness. When a direct probe to the subject
+ * fails, the observer asks a few random members to probe the subject on its behalf, and a probe round only
+ * counts as failed if none of them reaches the subject either.
+ *
+ * All detectors created by one factory share a local health score, which rises when the observer itself
+ * looks slow (a helper reached a subject that we could not, or a helper did not answer us at all) and falls
+ * with every successful direct probe. It changes at most once per probe round, however many helpers
+ * answered, so that the number of helpers does not scale the penalty. The number of failed rounds needed to report a subject is multiplied
+ * by (1 + local health), so an overloaded observer is slower to blame healthy subjects.
+ */
+@ThreadSafe
+public class IndirectProbeFailureDetector implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(IndirectProbeFailureDetector.class);
+    // Consecutive failed probe rounds before a healthy observer reports the subject
+    private static final int FAILURE_THRESHOLD = 3;
+    // Number of BOOTSTRAPPING status responses a node is allowed to return before we begin
+    // treating that as a failure condition.
+    private static final int BOOTSTRAP_COUNT_THRESHOLD = 30;
+    static final int DEFAULT_NUM_HELPERS = 3;
+    static final int MAX_LOCAL_HEALTH = 8;
+    private final Endpoint address;
+    private final Endpoint subject;
+    private final IMessagingClient rpcClient;
+    private final Runnable notifier;
+    private final Factory factory;
+    private final AtomicInteger failureCount = new AtomicInteger(0);
+    private final AtomicInteger bootstrapResponseCount = new AtomicInteger(0);
+    // Set while a probe round, including its indirect probes, is in flight
+    private final AtomicBoolean roundInProgress = new AtomicBoolean(false);
+    private final AtomicBoolean notified = new AtomicBoolean(false);
+    // Caches for probe messages. Avoids creating an unnecessary copy of a probe message each time.
+    private final RapidRequest probeMessage;
+    private final RapidRequest indirectProbeMessage;
+
+    private IndirectProbeFailureDetector(final Endpoint address, final Endpoint subject,
+                                         final IMessagingClient rpcClient, final Runnable notifier,
+                                         final Factory factory) {
+        this.address = address;
+        this.subject = subject;
+        this.rpcClient = rpcClient;
+        this.notifier = notifier;
+        this.factory = factory;
+        this.probeMessage = RapidRequest.newBuilder().setProbeMessage(
+                ProbeMessage.newBuilder().setSender(address).build()).build();
+        this.indirectProbeMessage = RapidRequest.newBuilder().setProbeMessage(
+                ProbeMessage.newBuilder().setSender(address).setTarget(subject).build()).build();
+    }
+
+    @Override
+    public void run() {
+        if (failureCount.get() >= FAILURE_THRESHOLD * (1 + factory.localHealth.get())) {
+            if (notified.compareAndSet(false, true)) {
+                notifier.run();
+            }
+            return;
+        }
+        if (!roundInProgress.compareAndSet(false, true)) {
+            // The previous round is still waiting for indirect probes
+            return;
+        }
+        LOG.trace("{} sending probe to {}", address, subject);
+        Futures.addCallback(rpcClient.sendMessageBestEffort(subject, probeMessage),
+                            new DirectProbeCallback(), MoreExecutors.directExecutor());
+    }
+
+    private boolean isAlive(@Nullable final RapidResponse response) {
+        if (response == null) {
+            return false;
+        }
+        final NodeStatus status = response.getProbeResponse().getStatus();
+        if (status.equals(NodeStatus.BOOTSTRAPPING)) {
+            return bootstrapResponseCount.incrementAndGet() <= BOOTSTRAP_COUNT_THRESHOLD;
+        }
+        return status.equals(NodeStatus.OK);
+    }
+
+    private void probeIndirectly() {
+        final List<Endpoint> helpers = factory.pickHelpers(subject);
+        if (helpers.isEmpty()) {
+            endRound(false, 0);
+            return;
+        }
+        LOG.trace("{} probing {} through {} helpers", address, subject, helpers.size());
+        final IndirectProbeCallback callback = new IndirectProbeCallback(helpers.size());
+        for (final Endpoint helper : helpers) {
+            Futures.addCallback(rpcClient.sendMessageBestEffort(helper, indirectProbeMessage),
+                                callback, MoreExecutors.directExecutor());
+        }
+    }
+
+    /**
+     * @param localHealthDelta how this round changes the local health score
+     */
+    private void endRound(final boolean isAlive, final int localHealthDelta) {
+        if (localHealthDelta != 0) {
+            factory.adjustLocalHealth(localHealthDelta);
+        }
+        if (isAlive) {
+            failureCount.set(0);
+        } else {
+            failureCount.incrementAndGet();
+            LOG.trace("Probe round at {} for {} failed", address, subject);
+        }
+        roundInProgress.set(false);
+    }
+
+    private class DirectProbeCallback implements FutureCallback<RapidResponse> {
+        @Override
+        public void onSuccess(@Nullable final RapidResponse response) {
+            if (isAlive(response)) {
+                LOG.trace("handleProbeOnSuccess at {} from {}", address, subject);
+                endRound(true, -1);
+            } else {
+                probeIndirectly();
+            }
+        }
+
+        @Override
+        public void onFailure(final Throwable throwable) {
+            LOG.trace("handleProbeOnFailure at {} from {}: {}", address, subject, throwable.getLocalizedMessage());
+            probeIndirectly();
+        }
+    }
+
+    /**
+     * Collects the responses of all helpers of one round. The round ends at the first helper that reached
+     * the subject, or once every helper has answered.
+     */
+    private class IndirectProbeCallback implements FutureCallback<RapidResponse> {
+        private final AtomicInteger pending;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final AtomicBoolean helperUnresponsive = new AtomicBoolean(false);
+
+        IndirectProbeCallback(final int numHelpers) {
+            this.pending = new AtomicInteger(numHelpers);
+        }
+
+        @Override
+        public void onSuccess(@Nullable final RapidResponse response) {
+            if (isAlive(response)) {
+                // Others reach the subject while we could not: the problem is likely on our side
+                if (done.compareAndSet(false, true)) {
+                    endRound(true, 1);
+                }
+                return;
+            }
+            onHelperDone();
+        }
+
+        @Override
+        public void onFailure(final Throwable throwable) {
+            // The helper did not answer us at all, not even to report the subject unreachable
+            helperUnresponsive.set(true);
+            onHelperDone();
+        }
+
+        private void onHelperDone() {
+            if (pending.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+                endRound(false, helperUnresponsive.get() ? 1 : 0);
+            }
+        }
+    }
+
+    public static class Factory implements IEdgeFailureDetectorFactory {
+        private final Endpoint address;
+        private final IMessagingClient messagingClient;
+        private final int numHelpers;
+        private final AtomicInteger localHealth = new AtomicInteger(0);
+        private volatile List<Endpoint> membership = Collections.emptyList();
+
+        public Factory(final Endpoint address, final IMessagingClient messagingClient) {
+            this(address, messagingClient, DEFAULT_NUM_HELPERS);
+        }
+
+        /**
+         * @param numHelpers the number of members asked to probe a subject after a failed direct probe
+         */
+        public Factory(final Endpoint address, final IMessagingClient messagingClient, final int numHelpers) {
+            if (numHelpers < 0) {
+                throw new IllegalArgumentException("Number of helpers must not be negative: " + numHelpers);
+            }
+            this.address = address;
+            this.messagingClient = messagingClient;
+            this.numHelpers = numHelpers;
+        }
+
+        @Override
+        public Runnable createInstance(final Endpoint subject, final Runnable notifier) {
+            return new IndirectProbeFailureDetector(address, subject, messagingClient, notifier, this);
+        }
+
+        @Override
+        public void onMembershipChange(final List<Endpoint> membership) {
+            this.membership = membership;
+        }
+
+        int getLocalHealth() {
+            return localHealth.get();
+        }
+
+        void adjustLocalHealth(final int delta) {
+            localHealth.updateAndGet(health -> Math.max(0, Math.min(MAX_LOCAL_HEALTH, health + delta)));
+        }
+
+        /**
+         * Picks up to numHelpers random members other than this node and {@code subject}. Members are
+         * sampled by index, without copying the membership list.
+         */
+        List<Endpoint> pickHelpers(final Endpoint subject) {
+            final List<Endpoint> members = membership;
+            final List<Endpoint> helpers = new ArrayList<>(numHelpers);
+            if (members.size() <= numHelpers + 2) {
+                // There are at most numHelpers candidates, so take them all
+                for (final Endpoint member : members) {
+                    if (helpers.size() < numHelpers && !member.equals(address) && !member.equals(subject)) {
+                        helpers.add(member);
+                    }
+                }
+                return helpers;
+            }
+            // At least numHelpers + 1 candidates: rejection sampling needs few draws, since at most
+            // numHelpers + 1 members (ourselves, the subject and the helpers so far) are ever rejected
+            // out of at least numHelpers + 3.
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (helpers.size() < numHelpers) {
+                final Endpoint member = members.get(random.nextInt(members.size()));
+                if (!member.equals(address) && !member.equals(subject) && !helpers.contains(member)) {
+                    helpers.add(member);
+                }
+            }
+            return helpers;
+        }
+    }
+}
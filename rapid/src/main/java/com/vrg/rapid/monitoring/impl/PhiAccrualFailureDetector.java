@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring.impl;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vrg.rapid.messaging.IMessagingClient;
+import com.vrg.rapid.monitoring.IEdgeFailureDetectorFactory;
+import com.vrg.rapid.pb.Endpoint;
+import com.vrg.rapid.pb.NodeStatus;
+import com.vrg.rapid.pb.ProbeMessage;
+import com.vrg.rapid.pb.RapidRequest;
+import com.vrg.rapid.pb.RapidResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A phi-accrual failure detector (Hayashibara et al.). Every successful probe response is treated as a
+ * heartbeat, and the detector keeps a sliding window of the intervals between heartbeats. Suspicion is
+ * expressed as phi = -log10(P(no heartbeat for this long)), under a normal distribution fitted to the
+ * window, and the subject is reported once phi crosses a threshold. Unlike a fixed count of failed probes,
+ * this adapts to the latency and jitter that the link to each subject actually shows.
+ *
+ * Like the PingPongFailureDetector, it is aware of nodes that are added to the cluster but are still
+ * bootstrapping: their responses count as heartbeats only up to a limit.
+ */
+@ThreadSafe
+public class PhiAccrualFailureDetector implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(PhiAccrualFailureDetector.class);
+    static final double DEFAULT_THRESHOLD = 8.0;
+    private static final int WINDOW_SIZE = 100;
+    // Number of BOOTSTRAPPING status responses a node is allowed to return before we stop
+    // treating them as heartbeats.
+    private static final int BOOTSTRAP_COUNT_THRESHOLD = 30;
+    private final Endpoint address;
+    private final Endpoint subject;
+    private final IMessagingClient rpcClient;
+    private final Runnable notifier;
+    private final double threshold;
+    private final long minStdDevMs;
+    private final long acceptablePauseMs;
+    // A cache for probe messages. Avoids creating an unnecessary copy of a probe message each time.
+    private final RapidRequest probeMessage;
+
+    @GuardedBy("this") private final long[] intervals = new long[WINDOW_SIZE];
+    @GuardedBy("this") private int numIntervals = 0;
+    @GuardedBy("this") private int nextInterval = 0;
+    @GuardedBy("this") private double intervalSum = 0;
+    @GuardedBy("this") private double intervalSquaredSum = 0;
+    @GuardedBy("this") private long lastHeartbeatMs;
+    @GuardedBy("this") private int bootstrapResponseCount = 0;
+    @GuardedBy("this") private boolean notified = false;
+
+    PhiAccrualFailureDetector(final Endpoint address, final Endpoint subject, final IMessagingClient rpcClient,
+                              final Runnable notifier, final long probeIntervalMs, final double threshold) {
+        this.address = address;
+        this.subject = subject;
+        this.rpcClient = rpcClient;
+        this.notifier = notifier;
+        this.threshold = threshold;
+        this.minStdDevMs = Math.max(1, probeIntervalMs / 10);
+        // Tolerate one lost probe on top of the observed interval distribution
+        this.acceptablePauseMs = probeIntervalMs;
+        this.probeMessage = RapidRequest.newBuilder().setProbeMessage(
+                ProbeMessage.newBuilder().setSender(address).build()).build();
+        // Seed the history with the expected interval, so that a subject that never responds is suspected
+        // in about as much time as one that stops responding.
+        this.lastHeartbeatMs = nowMs();
+        addInterval(probeIntervalMs - probeIntervalMs / 4);
+        addInterval(probeIntervalMs + probeIntervalMs / 4);
+    }
+
+    @Override
+    public void run() {
+        final boolean shouldNotify;
+        synchronized (this) {
+            shouldNotify = !notified && phi(nowMs()) >= threshold;
+            notified |= shouldNotify;
+        }
+        if (shouldNotify) {
+            notifier.run();
+        }
+        else {
+            LOG.trace("{} sending probe to {}", address, subject);
+            Futures.addCallback(rpcClient.sendMessageBestEffort(subject, probeMessage),
+                                new ProbeCallback(), MoreExecutors.directExecutor());
+        }
+    }
+
+    /**
+     * The suspicion level of the subject at time {@code nowMs}.
+     */
+    synchronized double phi(final long nowMs) {
+        final long elapsed = nowMs - lastHeartbeatMs;
+        final double mean = intervalSum / numIntervals + acceptablePauseMs;
+        final double variance = intervalSquaredSum / numIntervals - Math.pow(intervalSum / numIntervals, 2);
+        final double stdDev = Math.max(Math.sqrt(Math.max(variance, 0)), minStdDevMs);
+        // Logistic approximation of the normal CDF, as used by Cassandra and Akka
+        final double y = (elapsed - mean) / stdDev;
+        final double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    synchronized void heartbeat(final long nowMs) {
+        addInterval(nowMs - lastHeartbeatMs);
+        lastHeartbeatMs = nowMs;
+    }
+
+    @GuardedBy("this")
+    private void addInterval(final long interval) {
+        if (numIntervals == WINDOW_SIZE) {
+            final long evicted = intervals[nextInterval];
+            intervalSum -= evicted;
+            intervalSquaredSum -= (double) evicted * evicted;
+        } else {
+            numIntervals++;
+        }
+        intervals[nextInterval] = interval;
+        nextInterval = (nextInterval + 1) % WINDOW_SIZE;
+        intervalSum += interval;
+        intervalSquaredSum += (double) interval * interval;
+    }
+
+    private static long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private class ProbeCallback implements FutureCallback<RapidResponse> {
+        @Override
+        public void onSuccess(@Nullable final RapidResponse response) {
+            if (response == null) {
+                LOG.trace("null probe response received at {} from {}", address, subject);
+                return;
+            }
+            if (response.getProbeResponse().getStatus().equals(NodeStatus.BOOTSTRAPPING)) {
+                synchronized (PhiAccrualFailureDetector.this) {
+                    if (++bootstrapResponseCount > BOOTSTRAP_COUNT_THRESHOLD) {
+                        LOG.trace("BOOTSTRAP_COUNT_THRESHOLD exceeded at {} for {}", address, subject);
+                        return;
+                    }
+                }
+            }
+            LOG.trace("handleProbeOnSuccess at {} from {}", address, subject);
+            heartbeat(nowMs());
+        }
+
+        @Override
+        public void onFailure(final Throwable throwable) {
+            // Failed probes are not recorded: phi grows with the time since the last heartbeat
+            LOG.trace("handleProbeOnFailure at {} from {}: {}", address, subject, throwable.getLocalizedMessage());
+        }
+    }
+
+    public static class Factory implements IEdgeFailureDetectorFactory {
+        private final Endpoint address;
+        private final IMessagingClient messagingClient;
+        private final long probeIntervalMs;
+        private final double threshold;
+
+        /**
+         * @param address the address of this node, used as the sender of probes
+         * @param messagingClient the client used to send probes
+         * @param probeIntervalMs the failure detector interval (see Settings.getFailureDetectorIntervalInMs())
+         */
+        public Factory(final Endpoint address, final IMessagingClient messagingClient, final long probeIntervalMs) {
+            this(address, messagingClient, probeIntervalMs, DEFAULT_THRESHOLD);
+        }
+
+        /**
+         * @param threshold the value of phi at which a subject is reported. Higher values detect failures
+         *                  later and raise fewer false alerts.
+         */
+        public Factory(final Endpoint address, final IMessagingClient messagingClient, final long probeIntervalMs,
+                       final double threshold) {
+            if (probeIntervalMs <= 0 || threshold <= 0) {
+                throw new IllegalArgumentException("Probe interval and threshold must be positive");
+            }
+            this.address = address;
+            this.messagingClient = messagingClient;
+            this.probeIntervalMs = probeIntervalMs;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public Runnable createInstance(final Endpoint subject, final Runnable notifier) {
+            return new PhiAccrualFailureDetector(address, subject, messagingClient, notifier, probeIntervalMs,
+                                                 threshold);
+        }
+    }
+}
@@ -16,8 +16,10 @@ package com.vrg.rapid.monitoring.impl;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.vrg.rapid.messaging.IMessagingClient;
 import com.vrg.rapid.monitoring.IEdgeFailureDetectorFactory;
+import com.vrg.rapid.monitoring.PeerActivityTracker;
 import com.vrg.rapid.pb.Endpoint;
 import com.vrg.rapid.pb.NodeStatus;
 import com.vrg.rapid.pb.ProbeMessage;
@@ -29,37 +31,76 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a simple ping-pong failure detector. It is also aware of nodes that are added to the cluster
- * but are still bootstrapping.
+ * but are still bootstrapping. A subject is reported after FAILURE_THRESHOLD consecutive failed probes: a
+ * detector is kept across view changes, so scattered failures must not add up over its lifetime.
+ *
+ * With passive liveness enabled, a probe is skipped whenever the subject has sent us any message within the
+ * last probe interval, since that already shows it is alive.
+ *
+ * With an adaptive probe interval, a subject that keeps answering is probed less and less often, down to
+ * once every maxProbePeriod runs. The first failed probe brings it back to a probe on every run. Answers
+ * from a bootstrapping subject do not count towards backing off.
+ *
+ * With a suspect interval, every failed probe is also followed by another probe after suspectIntervalMs,
+ * independently of the runs, until the subject answers or is reported. Backing off delays the first failed
+ * probe by up to maxProbePeriod - 1 runs; a suspect interval shorter than the run interval lets the
+ * remaining failures accrue faster, which makes up for that delay.
  */
 @NotThreadSafe
 public class PingPongFailureDetector implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(PingPongFailureDetector.class);
-    private static final int FAILURE_THRESHOLD = 10;
+    static final int FAILURE_THRESHOLD = 10;
 
     // Number of BOOTSTRAPPING status responses a node is allowed to return before we begin
     // treating that as a failure condition.
     private static final int BOOTSTRAP_COUNT_THRESHOLD = 30;
+    // Number of consecutive successful probes after which the probe period is doubled
+    static final int BACKOFF_AFTER_SUCCESSES = 3;
     private final Endpoint address;
     private final Endpoint subject;
     private final AtomicInteger failureCount;
     private final AtomicInteger bootstrapResponseCount;
     private final IMessagingClient rpcClient;
     private final Runnable notifier;
+    @Nullable private final PeerActivityTracker activityTracker;
+    private final long passiveWindowMs;
+    private final int maxProbePeriod;
+    @Nullable private final ScheduledExecutorService suspectExecutor;
+    private final long suspectIntervalMs;
+    // Set while a follow-up probe to a suspected subject is scheduled
+    private final AtomicBoolean isFollowUpScheduled = new AtomicBoolean(false);
+    // The number of runs between two probes. Updated by probe callbacks.
+    private final AtomicInteger probePeriod = new AtomicInteger(1);
+    private final AtomicInteger consecutiveSuccesses = new AtomicInteger(0);
+    private int runsSinceProbe = 0;
     private boolean notified = false;
 
     // A cache for probe messages. Avoids creating an unnecessary copy of a probe message each time.
     private final RapidRequest probeMessage;
 
     private PingPongFailureDetector(final Endpoint address, final Endpoint subject,
-                                    final IMessagingClient rpcClient, final Runnable notifier) {
+                                    final IMessagingClient rpcClient, final Runnable notifier,
+                                    @Nullable final PeerActivityTracker activityTracker, final long passiveWindowMs,
+                                    final int maxProbePeriod, @Nullable final ScheduledExecutorService suspectExecutor,
+                                    final long suspectIntervalMs) {
         this.address = address;
         this.subject = subject;
         this.rpcClient = rpcClient;
         this.notifier = notifier;
+        this.activityTracker = activityTracker;
+        this.passiveWindowMs = passiveWindowMs;
+        this.maxProbePeriod = maxProbePeriod;
+        this.suspectExecutor = suspectExecutor;
+        this.suspectIntervalMs = suspectIntervalMs;
         this.failureCount = new AtomicInteger(0);
         this.bootstrapResponseCount = new AtomicInteger(0);
         this.probeMessage = RapidRequest.newBuilder().setProbeMessage(
@@ -77,13 +118,52 @@ public class PingPongFailureDetector implements Runnable {
             notified = true;
             notifier.run();
         }
+        else if (++runsSinceProbe < probePeriod.get()) {
+            LOG.trace("{} skipping probe to {}, stable for {} runs", address, subject, runsSinceProbe);
+        }
+        else if (activityTracker != null && activityTracker.heardWithin(subject, passiveWindowMs)) {
+            LOG.trace("{} skipping probe to {}, heard from recently", address, subject);
+        }
         else {
-            LOG.trace("{} sending probe to {}", address, subject);
-            Futures.addCallback(rpcClient.sendMessageBestEffort(subject, probeMessage),
-                                new ProbeCallback(subject), MoreExecutors.directExecutor());
+            runsSinceProbe = 0;
+            sendProbe();
+        }
+    }
+
+    private void sendProbe() {
+        LOG.trace("{} sending probe to {}", address, subject);
+        Futures.addCallback(rpcClient.sendMessageBestEffort(subject, probeMessage),
+                            new ProbeCallback(subject), MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Probes a suspected subject again after the suspect interval, without waiting for the next run.
+     */
+    private void scheduleFollowUpProbe() {
+        if (suspectExecutor == null || hasFailed() || !isFollowUpScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ignoreFuture(suspectExecutor.schedule(() -> {
+                isFollowUpScheduled.set(false);
+                if (!hasFailed()) {
+                    sendProbe();
+                }
+            }, suspectIntervalMs, TimeUnit.MILLISECONDS));
+        } catch (final RejectedExecutionException e) {
+            // The executor is shutting down along with the membership service
+            isFollowUpScheduled.set(false);
         }
     }
 
+    /**
+     * Used where the returned future can be ignored, as with fire-and-forget follow-up probes.
+     */
+    @CanIgnoreReturnValue
+    private static ScheduledFuture<?> ignoreFuture(final ScheduledFuture<?> future) {
+        return future;
+    }
+
     private class ProbeCallback implements FutureCallback<RapidResponse> {
         final Endpoint subject;
 
@@ -98,14 +178,15 @@ public class PingPongFailureDetector implements Runnable {
                 return;
             }
             final ProbeResponse probeResponse = response.getProbeResponse();
-            if (probeResponse.getStatus().equals(NodeStatus.BOOTSTRAPPING)) {
+            final boolean isBootstrapping = probeResponse.getStatus().equals(NodeStatus.BOOTSTRAPPING);
+            if (isBootstrapping) {
                 final int numBootstrapResponses = bootstrapResponseCount.incrementAndGet();
                 if (numBootstrapResponses > BOOTSTRAP_COUNT_THRESHOLD) {
                     handleProbeOnFailure(new RuntimeException("BOOTSTRAP_COUNT_THRESHOLD exceeded"));
                     return;
                 }
             }
-            handleProbeOnSuccess();
+            handleProbeOnSuccess(isBootstrapping);
         }
 
         @Override
@@ -114,29 +195,92 @@ public class PingPongFailureDetector implements Runnable {
         }
 
         // Executed at observer
-        private void handleProbeOnSuccess() {
+        private void handleProbeOnSuccess(final boolean isBootstrapping) {
             LOG.trace("handleProbeOnSuccess at {} from {}", address, subject);
+            failureCount.set(0);
+            // Keep probing a bootstrapping subject on every run, so that BOOTSTRAP_COUNT_THRESHOLD is a
+            // bound on time as well
+            if (isBootstrapping) {
+                consecutiveSuccesses.set(0);
+                probePeriod.set(1);
+            }
+            else if (consecutiveSuccesses.incrementAndGet() >= BACKOFF_AFTER_SUCCESSES) {
+                consecutiveSuccesses.set(0);
+                probePeriod.updateAndGet(period -> Math.min(maxProbePeriod, 2 * period));
+            }
         }
 
         // Executed at observer
         private void handleProbeOnFailure(final Throwable throwable) {
             failureCount.incrementAndGet();
+            consecutiveSuccesses.set(0);
+            probePeriod.set(1);
             LOG.trace("handleProbeOnFailure at {} from {}: {}", address, subject, throwable.getLocalizedMessage());
+            scheduleFollowUpProbe();
         }
     }
 
     public static class Factory implements IEdgeFailureDetectorFactory {
         private final Endpoint address;
         private final IMessagingClient messagingClient;
+        @Nullable private final PeerActivityTracker activityTracker;
+        private final long passiveWindowMs;
+        private final int maxProbePeriod;
+        @Nullable private final ScheduledExecutorService suspectExecutor;
+        private final long suspectIntervalMs;
 
         public Factory(final Endpoint address, final IMessagingClient messagingClient) {
+            this(address, messagingClient, null, 0, 1);
+        }
+
+        /**
+         * Creates detectors with passive liveness: probes to subjects heard from within the last
+         * {@code passiveWindowMs} milliseconds are skipped.
+         */
+        public Factory(final Endpoint address, final IMessagingClient messagingClient,
+                       final PeerActivityTracker activityTracker, final long passiveWindowMs) {
+            this(address, messagingClient, activityTracker, passiveWindowMs, 1);
+        }
+
+        /**
+         * Creates detectors without follow-up probes to suspected subjects.
+         */
+        public Factory(final Endpoint address, final IMessagingClient messagingClient,
+                       @Nullable final PeerActivityTracker activityTracker, final long passiveWindowMs,
+                       final int maxProbePeriod) {
+            this(address, messagingClient, activityTracker, passiveWindowMs, maxProbePeriod, null, 0);
+        }
+
+        /**
+         * @param activityTracker if not null, enables passive liveness with a window of {@code passiveWindowMs}
+         * @param maxProbePeriod the largest number of runs between two probes to a subject that keeps answering.
+         *                       With 1, subjects are probed on every run.
+         * @param suspectExecutor if not null, runs a follow-up probe {@code suspectIntervalMs} milliseconds after
+         *                        every failed probe (see SharedResources.getScheduledTasksExecutor())
+         */
+        public Factory(final Endpoint address, final IMessagingClient messagingClient,
+                       @Nullable final PeerActivityTracker activityTracker, final long passiveWindowMs,
+                       final int maxProbePeriod, @Nullable final ScheduledExecutorService suspectExecutor,
+                       final long suspectIntervalMs) {
+            if (maxProbePeriod < 1) {
+                throw new IllegalArgumentException("Maximum probe period must be positive: " + maxProbePeriod);
+            }
+            if (suspectExecutor != null && suspectIntervalMs <= 0) {
+                throw new IllegalArgumentException("Suspect interval must be positive: " + suspectIntervalMs);
+            }
             this.address = address;
             this.messagingClient = messagingClient;
+            this.activityTracker = activityTracker;
+            this.passiveWindowMs = passiveWindowMs;
+            this.maxProbePeriod = maxProbePeriod;
+            this.suspectExecutor = suspectExecutor;
+            this.suspectIntervalMs = suspectIntervalMs;
         }
 
         @Override
         public Runnable createInstance(final Endpoint subject, final Runnable notifier) {
-            return new PingPongFailureDetector(address, subject, messagingClient, notifier);
+            return new PingPongFailureDetector(address, subject, messagingClient, notifier, activityTracker,
+                                               passiveWindowMs, maxProbePeriod, suspectExecutor, suspectIntervalMs);
         }
     }
 }
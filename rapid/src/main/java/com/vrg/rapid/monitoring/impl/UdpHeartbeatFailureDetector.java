@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring.impl;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.vrg.rapid.monitoring.IEdgeFailureDetectorFactory;
+import com.vrg.rapid.pb.Endpoint;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A failure detector that exchanges small ping and pong datagrams over its own UDP socket, instead of sending
+ * probes as RPCs through the messaging client. Each run sends one ping, and counts a miss if the pong for the
+ * previous ping has not arrived by then. The subject is reported after a number of consecutive misses.
+ *
+ * Every node of the cluster must run the factory, since it also answers the pings of other nodes. Pings are
+ * sent to the UDP port with the same number as the subject's (TCP) port. A pong is matched to its ping by
+ * the ping's nonce alone, since a subject with several interfaces may answer from another address than the
+ * one it was pinged at. Nonces are random 64-bit values, so that a host that cannot see the pings cannot
+ * keep a failed subject alive by guessing them. Unlike the PingPongFailureDetector, this detector has no
+ * notion of bootstrapping nodes: a node answers pings as soon as its factory is up.
+ */
+@ThreadSafe
+public class UdpHeartbeatFailureDetector implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpHeartbeatFailureDetector.class);
+    static final int FAILURE_THRESHOLD = 10;
+    static final byte PING = 1;
+    static final byte PONG = 2;
+    // A type byte followed by a nonce
+    static final int PACKET_SIZE = 1 + Long.BYTES;
+    private final Endpoint subject;
+    private final InetSocketAddress subjectAddress;
+    private final Factory factory;
+    private final Runnable notifier;
+    // Nonce of the latest ping, or 0 before the first one
+    private final AtomicLong lastSentNonce = new AtomicLong(0);
+    private final AtomicLong lastAckedNonce = new AtomicLong(0);
+    // Only accessed by the thread running the detector
+    private int missCount = 0;
+    private boolean notified = false;
+
+    private UdpHeartbeatFailureDetector(final Endpoint subject, final InetSocketAddress subjectAddress,
+                                        final Factory factory, final Runnable notifier) {
+        this.subject = subject;
+        this.subjectAddress = subjectAddress;
+        this.factory = factory;
+        this.notifier = notifier;
+    }
+
+    @Override
+    public void run() {
+        if (notified) {
+            return;
+        }
+        final long sent = lastSentNonce.get();
+        if (sent != 0 && lastAckedNonce.get() != sent) {
+            missCount++;
+            LOG.trace("Missed pong at {} from {}", factory.bindAddress, subject);
+        } else {
+            missCount = 0;
+        }
+        if (missCount >= FAILURE_THRESHOLD) {
+            notified = true;
+            factory.outstandingPings.remove(lastSentNonce.get());
+            notifier.run();
+            return;
+        }
+        final long nonce = factory.registerPing(this);
+        // Only the latest ping of a detector is awaited: a pong for an earlier one counts as a miss anyway
+        factory.outstandingPings.remove(lastSentNonce.getAndSet(nonce));
+        factory.send(subjectAddress, PING, nonce);
+    }
+
+    private void onPong(final long nonce) {
+        lastAckedNonce.set(nonce);
+    }
+
+    /**
+     * Creates detectors that share one UDP socket, bound to the listen address of this node. The socket is
+     * closed by shutdown(). The socket does not set SO_REUSEADDR, so that binding fails if another process
+     * already uses the port, rather than the two sockets silently splitting the heartbeats between them.
+     *
+     * In loopback mode, the factory binds to the loopback interface and pings every subject there, using only
+     * the ports of the endpoints. Nodes with made-up host names can then run in one process, as in tests.
+     */
+    public static class Factory implements IEdgeFailureDetectorFactory {
+        private final boolean loopback;
+        private final InetSocketAddress bindAddress;
+        private final Channel channel;
+        private final SecureRandom random = new SecureRandom();
+        // The latest ping of each detector, by nonce. Nonces are unique among the outstanding pings of this
+        // factory, so that a pong identifies the detector that sent the ping.
+        private final Map<Long, UdpHeartbeatFailureDetector> outstandingPings = new ConcurrentHashMap<>();
+
+        /**
+         * @param listenAddress the address to bind the UDP socket to. Other nodes ping the UDP port with the
+         *                      same number as the port they know this node by.
+         * @param eventLoopGroup the event loop group that runs the socket (see SharedResources.getEventLoopGroup())
+         */
+        public Factory(final Endpoint listenAddress, final EventLoopGroup eventLoopGroup) {
+            this(listenAddress, eventLoopGroup, false);
+        }
+
+        /**
+         * @param loopback whether to bind to and ping on the loopback interface, ignoring the host names of
+         *                 the listen address and of the subjects
+         */
+        public Factory(final Endpoint listenAddress, final EventLoopGroup eventLoopGroup, final boolean loopback) {
+            this.loopback = loopback;
+            this.bindAddress = toSocketAddress(listenAddress);
+            final Bootstrap bootstrap = new Bootstrap();
+            bootstrap.group(eventLoopGroup)
+                    .channel(NioDatagramChannel.class)
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .handler(new HeartbeatHandler());
+            final ChannelFuture bindFuture = bootstrap.bind(bindAddress).awaitUninterruptibly();
+            if (!bindFuture.isSuccess()) {
+                throw new IllegalStateException("Could not bind heartbeat socket to " + bindAddress,
+                                                bindFuture.cause());
+            }
+            this.channel = bindFuture.channel();
+        }
+
+        @Override
+        public Runnable createInstance(final Endpoint subject, final Runnable notifier) {
+            return new UdpHeartbeatFailureDetector(subject, toSocketAddress(subject), this, notifier);
+        }
+
+        @Override
+        public void onMembershipChange(final List<Endpoint> membership) {
+            final Set<Endpoint> members = new HashSet<>(membership);
+            outstandingPings.values().removeIf(detector -> !members.contains(detector.subject));
+        }
+
+        @Override
+        public void shutdown() {
+            channel.close().syncUninterruptibly();
+        }
+
+        /**
+         * Picks a fresh nonce for a ping of {@code detector} and awaits its pong.
+         */
+        private long registerPing(final UdpHeartbeatFailureDetector detector) {
+            long nonce;
+            do {
+                nonce = random.nextLong();
+            } while (nonce == 0 || outstandingPings.putIfAbsent(nonce, detector) != null);
+            return nonce;
+        }
+
+        private void send(final InetSocketAddress recipient, final byte type, final long nonce) {
+            final ByteBuf buf = channel.alloc().buffer(PACKET_SIZE);
+            buf.writeByte(type);
+            buf.writeLong(nonce);
+            ignoreFuture(channel.writeAndFlush(new DatagramPacket(buf, recipient), channel.voidPromise()));
+        }
+
+        /**
+         * Used where the returned future can be ignored, as with void promises.
+         */
+        @CanIgnoreReturnValue
+        private static ChannelFuture ignoreFuture(final ChannelFuture future) {
+            return future;
+        }
+
+        private InetSocketAddress toSocketAddress(final Endpoint endpoint) {
+            if (loopback) {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), endpoint.getPort());
+            }
+            return new InetSocketAddress(endpoint.getHostname().toStringUtf8(), endpoint.getPort());
+        }
+
+        private class HeartbeatHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+            @Override
+            protected void channelRead0(final ChannelHandlerContext ctx, final DatagramPacket packet) {
+                final ByteBuf content = packet.content();
+                if (content.readableBytes() != PACKET_SIZE) {
+                    LOG.trace("Dropping malformed heartbeat packet from {}", packet.sender());
+                    return;
+                }
+                final byte type = content.readByte();
+                final long nonce = content.readLong();
+                if (type == PING) {
+                    send(packet.sender(), PONG, nonce);
+                } else if (type == PONG) {
+                    final UdpHeartbeatFailureDetector detector = outstandingPings.remove(nonce);
+                    if (detector != null) {
+                        detector.onPong(nonce);
+                    }
+                }
+            }
+
+            @Override
+            public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+                // A lost datagram is reported by a missed pong, so errors need not close the socket
+                LOG.trace("Exception caught on heartbeat socket {}", bindAddress, cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.AlertMessage;
+import com.vrg.rapid.pb.EdgeStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the size, quiet window and maximum delay triggers of the alert batcher.
+ */
+public class AlertBatcherTest {
+    private final LinkedBlockingQueue<List<AlertMessage>> batches = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setup() {
+        batches.clear();
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A full batch is flushed right away, on the enqueuing thread.
+     */
+    @Test
+    public void fullBatchIsFlushedImmediately() {
+        final AlertBatcher batcher = new AlertBatcher(executor, batches::add, 3, 10000, 10000);
+        batcher.enqueue(createAlert(0));
+        batcher.enqueueRelayed(Arrays.asList(createAlert(1), createAlert(2)));
+        final List<AlertMessage> batch = batches.poll();
+        assertNotNull(batch);
+        assertEquals(3, batch.size());
+        assertEquals(3, batcher.getStats().getAlertsSent());
+        batcher.shutdown();
+    }
+
+    /**
+     * Batches are sent without holding the batcher's lock, so a slow send does not hold up other threads.
+     */
+    @Test(timeout = 5000)
+    public void slowFlusherDoesNotHoldTheLock() throws InterruptedException {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AlertBatcher batcher = new AlertBatcher(executor, batch -> {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batches.add(batch);
+        }, 1, 10000, 10000);
+        final Thread sender = new Thread(() -> batcher.enqueue(createAlert(0)));
+        sender.start();
+        sending.await();
+        assertEquals(1, batcher.getStats().getAlertsSent());
+        release.countDown();
+        sender.join();
+        assertEquals(1, batches.size());
+        batcher.shutdown();
+    }
+
+    /**
+     * A batch is flushed once no alert has been queued for the quiet window.
+     */
+    @Test(timeout = 5000)
+    public void batchIsFlushedAfterQuietWindow() throws InterruptedException {
+        final AlertBatcher batcher = new AlertBatcher(executor, batches::add, 100, 50, 10000);
+        batcher.enqueue(createAlert(0));
+        batcher.enqueue(createAlert(1));
+        final List<AlertMessage> batch = batches.poll(1, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(2, batch.size());
+        assertTrue(batcher.getStats().getMaxTimeInQueueNs() > 0);
+        assertNull(batches.poll(200, TimeUnit.MILLISECONDS));
+        batcher.shutdown();
+    }
+
+    /**
+     * A steady stream of alerts cannot hold back a batch for longer than the maximum delay.
+     */
+    @Test(timeout = 5000)
+    public void steadyStreamIsFlushedAfterMaxDelay() throws InterruptedException {
+        final long maxDelayMs = 200;
+        final AlertBatcher batcher = new AlertBatcher(executor, batches::add, 10000, 100, maxDelayMs);
+        int i = 0;
+        while (batches.isEmpty()) {
+            batcher.enqueue(createAlert(i++));
+            Thread.sleep(2);
+        }
+        assertTrue(batcher.getStats().getMaxTimeInQueueNs() < TimeUnit.MILLISECONDS.toNanos(5 * maxDelayMs));
+        batcher.shutdown();
+    }
+
+    /**
+     * Closely spaced alerts shrink the quiet window below the batching window.
+     */
+    @Test
+    public void windowAdaptsToArrivalRate() {
+        final AlertBatcher batcher = new AlertBatcher(executor, batches::add, 10000, 100, 10000);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), batcher.getWindowNs());
+        for (int i = 0; i < 100; i++) {
+            batcher.enqueue(createAlert(i));
+        }
+        assertTrue(batcher.getWindowNs() < TimeUnit.MILLISECONDS.toNanos(100));
+        batcher.shutdown();
+    }
+
+    private static AlertMessage createAlert(final int ringNumber) {
+        return AlertMessage.newBuilder()
+                .setEdgeSrc(Utils.hostFromParts("127.0.0.1", 1))
+                .setEdgeDst(Utils.hostFromParts("127.0.0.1", 2))
+                .setEdgeStatus(EdgeStatus.DOWN)
+                .addRingNumber(ringNumber)
+                .setConfigurationId(-1L)
+                .build();
+    }
+}
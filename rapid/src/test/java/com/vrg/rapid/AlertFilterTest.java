@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.AlertMessage;
+import com.vrg.rapid.pb.Endpoint;
+import com.vrg.rapid.pb.EdgeStatus;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the ingress alert filter.
+ */
+public class AlertFilterTest {
+    private static final long CONFIGURATION_ID = -1L;
+
+    /**
+     * Copies of an alert are dropped within a configuration, while distinct alerts are kept in order.
+     */
+    @Test
+    public void duplicatesAreDropped() {
+        final AlertFilter filter = new AlertFilter();
+        final AlertMessage first = createAlert(1, 2, EdgeStatus.DOWN, 0, CONFIGURATION_ID);
+        final AlertMessage second = createAlert(1, 2, EdgeStatus.DOWN, 1, CONFIGURATION_ID);
+        final AlertMessage third = createAlert(3, 2, EdgeStatus.DOWN, 0, CONFIGURATION_ID);
+        final AlertMessage up = createAlert(1, 2, EdgeStatus.UP, 0, CONFIGURATION_ID);
+
+        final List<AlertMessage> batch = Arrays.asList(first, second);
+        assertSame(batch, filter.retainUnseen(batch, CONFIGURATION_ID));
+        assertEquals(Arrays.asList(third, up),
+                     filter.retainUnseen(Arrays.asList(first, third, second, up, third), CONFIGURATION_ID));
+        assertTrue(filter.retainUnseen(Arrays.asList(first, second, third, up), CONFIGURATION_ID).isEmpty());
+    }
+
+    /**
+     * The filter forgets everything it has seen once the configuration changes, and never records
+     * alerts from configurations other than the current one.
+     */
+    @Test
+    public void filterIsResetOnConfigurationChange() {
+        final AlertFilter filter = new AlertFilter();
+        final AlertMessage alert = createAlert(1, 2, EdgeStatus.DOWN, 0, CONFIGURATION_ID);
+        final AlertMessage stale = createAlert(1, 2, EdgeStatus.DOWN, 0, CONFIGURATION_ID - 1);
+        final List<AlertMessage> batch = Collections.singletonList(alert);
+        final List<AlertMessage> staleBatch = Collections.singletonList(stale);
+
+        assertEquals(batch, filter.retainUnseen(batch, CONFIGURATION_ID));
+        assertEquals(staleBatch, filter.retainUnseen(staleBatch, CONFIGURATION_ID));
+        assertEquals(staleBatch, filter.retainUnseen(staleBatch, CONFIGURATION_ID));
+        assertTrue(filter.retainUnseen(batch, CONFIGURATION_ID).isEmpty());
+
+        final AlertMessage next = createAlert(1, 2, EdgeStatus.DOWN, 0, CONFIGURATION_ID + 1);
+        final List<AlertMessage> nextBatch = Collections.singletonList(next);
+        assertEquals(nextBatch, filter.retainUnseen(nextBatch, CONFIGURATION_ID + 1));
+        assertTrue(filter.retainUnseen(nextBatch, CONFIGURATION_ID + 1).isEmpty());
+    }
+
+    /**
+     * A joiner that retries with a new identifier in the same configuration is reported again.
+     */
+    @Test
+    public void joinerRetryWithNewIdentifierIsKept() {
+        final AlertFilter filter = new AlertFilter();
+        final AlertMessage up = createAlert(1, 2, EdgeStatus.UP, 0, CONFIGURATION_ID);
+        final AlertMessage attempt = up.toBuilder().setNodeId(Utils.nodeIdFromUUID(UUID.randomUUID())).build();
+        final AlertMessage retry = up.toBuilder().setNodeId(Utils.nodeIdFromUUID(UUID.randomUUID())).build();
+
+        assertEquals(Collections.singletonList(attempt),
+                     filter.retainUnseen(Collections.singletonList(attempt), CONFIGURATION_ID));
+        assertEquals(Collections.singletonList(retry),
+                     filter.retainUnseen(Arrays.asList(attempt, retry), CONFIGURATION_ID));
+    }
+
+    /**
+     * Many distinct alerts force the table to grow without losing any recorded alert.
+     */
+    @Test
+    public void largeBatches() {
+        final AlertFilter filter = new AlertFilter();
+        final int numAlerts = 5000;
+        final List<AlertMessage> alerts = new ArrayList<>(numAlerts);
+        for (int i = 0; i < numAlerts; i++) {
+            alerts.add(createAlert(i, i + 1, EdgeStatus.DOWN, i % 10, CONFIGURATION_ID));
+        }
+        assertSame(alerts, filter.retainUnseen(alerts, CONFIGURATION_ID));
+        assertTrue(filter.retainUnseen(alerts, CONFIGURATION_ID).isEmpty());
+    }
+
+    private static AlertMessage createAlert(final int srcPort, final int dstPort, final EdgeStatus status,
+                                            final int ringNumber, final long configurationId) {
+        final Endpoint src = Utils.hostFromParts("127.0.0.1", srcPort);
+        final Endpoint dst = Utils.hostFromParts("127.0.0.1", dstPort);
+        return AlertMessage.newBuilder()
+                .setEdgeSrc(src)
+                .setEdgeDst(dst)
+                .setEdgeStatus(status)
+                .addRingNumber(ringNumber)
+                .setConfigurationId(configurationId).build();
+    }
+}
@@ -336,6 +336,25 @@ public class ClusterTest {
         verifyNumClusterInstances(numNodes);
     }
 
+    /**
+     * Same as failTenRandomNodes(), but with alert batches relayed through a small fanout instead of
+     * being broadcast to every member, for both the joins and the failures.
+     */
+    @Test(timeout = 30000)
+    public void failTenRandomNodesWithAlertRelay() throws IOException, InterruptedException {
+        useStaticFd = true;
+        settings.setAlertRelayFanout(8);
+        final int numNodes = 50;
+        final int numFailingNodes = 10;
+        final Endpoint seedEndpoint = Utils.hostFromParts("127.0.0.1", basePort);
+        createCluster(numNodes, seedEndpoint);
+        verifyCluster(numNodes);
+        final Set<Endpoint> failingNodes = getRandomHosts(numFailingNodes);
+        staticFds.values().forEach(e -> e.addFailedNodes(failingNodes));
+        waitAndVerifyAgreement(numNodes - failingNodes.size(), 20, 1000);
+        verifyNumClusterInstances(numNodes);
+    }
+
     /**
      * This test starts with a 50 node cluster. We then randomly fail at most 10 randomly selected nodes.
      */
@@ -520,6 +539,32 @@ public class ClusterTest {
         waitAndVerifyAgreement(numNodes, 2, 1000);
     }
 
+    /**
+     * Failure detectors are kept across view changes: a subject that is monitored in several consecutive
+     * configurations gets a single detector instance.
+     */
+    @Test(timeout = 30000)
+    public void failureDetectorsAreKeptAcrossViewChanges() throws IOException, InterruptedException {
+        final Endpoint seedEndpoint = Utils.hostFromParts("127.0.0.1", basePort);
+        final Map<Endpoint, AtomicInteger> instancesPerSubject = new ConcurrentHashMap<>();
+        final Cluster seed = new Cluster.Builder(seedEndpoint, seedEndpoint)
+                .useSettings(settings)
+                .setEdgeFailureDetectorFactory((subject, notifier) -> {
+                    instancesPerSubject.computeIfAbsent(subject, k -> new AtomicInteger(0)).incrementAndGet();
+                    return () -> { };
+                })
+                .start();
+        instances.put(seedEndpoint, seed);
+        // Nodes join one at a time, so that every join is a separate view change
+        for (int i = 0; i < 2; i++) {
+            extendCluster(1, seedEndpoint);
+            waitAndVerifyAgreement(i + 2, 5, 1000);
+        }
+        // The first joiner is the only subject of the seed after the first view change
+        assertEquals(1, instancesPerSubject.get(Utils.hostFromParts("127.0.0.1", basePort + 1)).get());
+        instancesPerSubject.values().forEach(count -> assertEquals(1, count.get()));
+    }
+
     /**
      * Creates a cluster of size {@code numNodes} with a seed {@code seedEndpoint}.
      *
@@ -19,8 +19,10 @@ import com.vrg.rapid.pb.AlertMessage;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
 
@@ -300,6 +302,135 @@ public class CutDetectionTest {
         }
     }
 
+    /**
+     * Reports are tracked as a bitmask per subject. With K > 64 the mask spans several words, and repeated
+     * reports on the same ring in any word must be ignored.
+     */
+    @Test
+    public void cutDetectionTestWideRings() {
+        final int wideK = 70;
+        final MultiNodeCutDetector wb = new MultiNodeCutDetector(wideK, wideK - 1, L);
+        final Endpoint dst = Utils.hostFromParts("127.0.0.2", 2);
+        final Endpoint src = Utils.hostFromParts("127.0.0.1", 1);
+
+        for (int ringNumber = 0; ringNumber < wideK - 2; ringNumber++) {
+            assertEquals(0, wb.aggregateForProposal(
+                    createAlertMessage(src, dst, EdgeStatus.UP, CONFIGURATION_ID, ringNumber)).size());
+            assertEquals(0, wb.aggregateForProposal(
+                    createAlertMessage(src, dst, EdgeStatus.UP, CONFIGURATION_ID, ringNumber)).size());
+        }
+        assertEquals(0, wb.getNumProposals());
+
+        final List<Endpoint> ret = wb.aggregateForProposal(
+                createAlertMessage(src, dst, EdgeStatus.UP, CONFIGURATION_ID, wideK - 1));
+        assertEquals(1, ret.size());
+        assertEquals(1, wb.getNumProposals());
+
+        wb.clear();
+        assertEquals(0, wb.aggregateForProposal(
+                createAlertMessage(src, dst, EdgeStatus.UP, CONFIGURATION_ID, wideK - 1)).size());
+        assertEquals(0, wb.getNumProposals());
+    }
+
+    /**
+     * A batch of alerts is aggregated across stripes, in parallel when large. Every subject crosses H before the
+     * next one is reported, so as with alerts applied one at a time, each of them is a proposal of its own.
+     */
+    @Test
+    public void cutDetectionTestParallelBatch() {
+        final MultiNodeCutDetector wb = new MultiNodeCutDetector(K, H, L, 4);
+        final int numNodes = 100;
+        final List<AlertMessage> batch = new ArrayList<>();
+        final Set<Endpoint> expected = new HashSet<>();
+        for (int i = 0; i < numNodes; i++) {
+            final Endpoint dst = Utils.hostFromParts("127.0.0.2", 2 + i);
+            expected.add(dst);
+            for (int ringNumber = 0; ringNumber < K; ringNumber++) {
+                batch.add(createAlertMessage(Utils.hostFromParts("127.0.0.1", ringNumber + 1), dst,
+                                             EdgeStatus.DOWN, CONFIGURATION_ID, ringNumber));
+            }
+        }
+        // Duplicates within the batch are ignored
+        batch.addAll(new ArrayList<>(batch.subList(0, K)));
+
+        final List<Endpoint> ret = wb.aggregateForProposal(batch);
+        assertEquals(numNodes, ret.size());
+        assertEquals(expected, new HashSet<>(ret));
+        assertEquals(numNodes, wb.getNumProposals());
+    }
+
+    /**
+     * A host left between the L and H watermarks by a batch blocks the proposal until it crosses H.
+     */
+    @Test
+    public void cutDetectionTestBatchBlocking() {
+        final MultiNodeCutDetector wb = new MultiNodeCutDetector(K, H, L, 2);
+        final Endpoint dst1 = Utils.hostFromParts("127.0.0.2", 2);
+        final Endpoint dst2 = Utils.hostFromParts("127.0.0.3", 2);
+        final List<AlertMessage> batch = new ArrayList<>();
+        for (int i = 0; i < H - 1; i++) {
+            batch.add(createAlertMessage(Utils.hostFromParts("127.0.0.1", i + 1), dst2, EdgeStatus.UP,
+                                         CONFIGURATION_ID, i));
+        }
+        for (int i = 0; i < H; i++) {
+            batch.add(createAlertMessage(Utils.hostFromParts("127.0.0.1", i + 1), dst1, EdgeStatus.UP,
+                                         CONFIGURATION_ID, i));
+        }
+        assertEquals(0, wb.aggregateForProposal(batch).size());
+        assertEquals(0, wb.getNumProposals());
+
+        final List<Endpoint> ret = wb.aggregateForProposal(Collections.singletonList(
+                createAlertMessage(Utils.hostFromParts("127.0.0.1", H), dst2, EdgeStatus.UP,
+                                   CONFIGURATION_ID, H - 1)));
+        assertEquals(2, ret.size());
+        assertEquals(1, wb.getNumProposals());
+    }
+
+    /**
+     * A batch outputs the same proposals as its alerts applied one at a time, including proposals from the
+     * middle of the batch: here dst1 crosses H before dst2 crosses L, so dst1 is proposed on its own.
+     */
+    @Test
+    public void cutDetectionTestBatchMatchesOneAtATime() {
+        final Endpoint dst1 = Utils.hostFromParts("127.0.0.2", 2);
+        final Endpoint dst2 = Utils.hostFromParts("127.0.0.3", 2);
+        final List<AlertMessage> batch = new ArrayList<>();
+        for (int i = 0; i < H; i++) {
+            batch.add(createAlertMessage(Utils.hostFromParts("127.0.0.1", i + 1), dst1, EdgeStatus.DOWN,
+                                         CONFIGURATION_ID, i));
+        }
+        for (int i = 0; i < L; i++) {
+            batch.add(createAlertMessage(Utils.hostFromParts("127.0.0.1", i + 1), dst2, EdgeStatus.DOWN,
+                                         CONFIGURATION_ID, i));
+        }
+        assertBatchMatchesOneAtATime(batch, 1);
+        assertEquals(Collections.singletonList(dst1),
+                     new MultiNodeCutDetector(K, H, L, 2).aggregateForProposal(batch));
+
+        // Large batches are aggregated in parallel, and their crossings are replayed in order
+        final Random random = new Random(0);
+        for (int iteration = 0; iteration < 20; iteration++) {
+            final List<AlertMessage> largeBatch = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                largeBatch.add(createAlertMessage(Utils.hostFromParts("127.0.0.1", 1),
+                                                  Utils.hostFromParts("127.0.0.2", random.nextInt(100)),
+                                                  EdgeStatus.DOWN, CONFIGURATION_ID, random.nextInt(K)));
+            }
+            assertBatchMatchesOneAtATime(largeBatch, 1 + random.nextInt(8));
+        }
+    }
+
+    private void assertBatchMatchesOneAtATime(final List<AlertMessage> batch, final int numStripes) {
+        final MultiNodeCutDetector oneAtATime = new MultiNodeCutDetector(K, H, L, numStripes);
+        final List<Endpoint> expected = new ArrayList<>();
+        for (final AlertMessage msg : batch) {
+            expected.addAll(oneAtATime.aggregateForProposal(msg));
+        }
+        final MultiNodeCutDetector batched = new MultiNodeCutDetector(K, H, L, numStripes);
+        assertEquals(expected, batched.aggregateForProposal(batch));
+        assertEquals(oneAtATime.getNumProposals(), batched.getNumProposals());
+    }
+
     private AlertMessage createAlertMessage(final Endpoint src,
                                                       final Endpoint dst,
                                                       final EdgeStatus status,
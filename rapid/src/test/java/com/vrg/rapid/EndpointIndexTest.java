@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the endpoint interning table.
+ */
+public class EndpointIndexTest {
+
+    /**
+     * Indices are dense, stable while an endpoint is present, and recycled after removal.
+     */
+    @Test
+    public void indicesAreDenseAndRecycled() {
+        final EndpointIndex index = new EndpointIndex();
+        final int numNodes = 100;
+        for (int i = 0; i < numNodes; i++) {
+            assertEquals(i, index.add(Utils.hostFromParts("127.0.0.1", i)));
+        }
+        assertEquals(7, index.add(Utils.hostFromParts("127.0.0.1", 7)));
+        assertEquals(7, index.remove(Utils.hostFromParts("127.0.0.1", 7)));
+        assertEquals(-1, index.remove(Utils.hostFromParts("127.0.0.1", 7)));
+        assertNull(index.get(7));
+        assertEquals(numNodes - 1, index.size());
+        assertEquals(7, index.add(Utils.hostFromParts("127.0.0.2", 1)));
+        assertEquals(numNodes, index.limit());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.indexOf(Utils.hostFromParts("127.0.0.1", 1)));
+        assertEquals(0, index.add(Utils.hostFromParts("127.0.0.1", 1)));
+    }
+
+    /**
+     * Interleave additions and removals and compare against a HashMap, exercising deletion from probe chains.
+     */
+    @Test
+    public void matchesReferenceMap() {
+        final EndpointIndex index = new EndpointIndex();
+        final Map<Endpoint, Integer> reference = new HashMap<>();
+        final List<Endpoint> present = new ArrayList<>();
+        final Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            if (present.isEmpty() || random.nextInt(5) > 1) {
+                final Endpoint endpoint = Utils.hostFromParts("10.0." + random.nextInt(4) + ".1", random.nextInt(5000));
+                final int assigned = index.add(endpoint);
+                if (!reference.containsKey(endpoint)) {
+                    assertTrue(!reference.containsValue(assigned));
+                    reference.put(endpoint, assigned);
+                    present.add(endpoint);
+                }
+                assertEquals((int) reference.get(endpoint), assigned);
+            } else {
+                final Endpoint endpoint = present.remove(random.nextInt(present.size()));
+                assertEquals((int) reference.remove(endpoint), index.remove(endpoint));
+            }
+        }
+        assertEquals(reference.size(), index.size());
+        for (final Map.Entry<Endpoint, Integer> entry : reference.entrySet()) {
+            assertEquals((int) entry.getValue(), index.indexOf(entry.getKey()));
+            assertEquals(entry.getKey(), index.get(entry.getValue()));
+            assertTrue(entry.getValue() < index.limit());
+        }
+    }
+
+    /**
+     * Members keep their index in the shared table, which is left untouched, and other nodes are interned past it.
+     */
+    @Test
+    public void nodeIdsShareTheMembersIndex() {
+        final EndpointIndex members = new EndpointIndex();
+        for (int i = 0; i < 10; i++) {
+            members.add(Utils.hostFromParts("127.0.0.1", i));
+        }
+        members.remove(Utils.hostFromParts("127.0.0.1", 3));
+        final NodeIds ids = new NodeIds(members);
+
+        assertEquals(5, ids.intern(Utils.hostFromParts("127.0.0.1", 5)));
+        assertEquals(-1, ids.indexOf(Utils.hostFromParts("127.0.0.2", 1)));
+        assertEquals(10, ids.intern(Utils.hostFromParts("127.0.0.2", 1)));
+        assertEquals(10, ids.intern(Utils.hostFromParts("127.0.0.2", 1)));
+        assertEquals(11, ids.intern(Utils.hostFromParts("127.0.0.1", 3)));
+        assertEquals(Utils.hostFromParts("127.0.0.2", 1), ids.get(10));
+        assertEquals(Utils.hostFromParts("127.0.0.1", 5), ids.get(5));
+        assertEquals(12, ids.limit());
+        assertEquals(9, members.size());
+        assertEquals(-1, members.indexOf(Utils.hostFromParts("127.0.0.2", 1)));
+    }
+}
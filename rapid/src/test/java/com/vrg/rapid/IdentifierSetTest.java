@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.google.protobuf.ByteString;
+import com.vrg.rapid.pb.JoinResponse;
+import com.vrg.rapid.pb.NodeId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the identifier history store and its wire encoding.
+ */
+public class IdentifierSetTest {
+
+    /**
+     * Membership, duplicate suppression and sorted iteration, including the extreme values of each word.
+     */
+    @Test
+    public void addAndContains() {
+        final IdentifierSet set = new IdentifierSet();
+        final List<NodeId> identifiers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            identifiers.add(Utils.nodeIdFromUUID(UUID.randomUUID()));
+        }
+        identifiers.add(NodeId.newBuilder().setHigh(Long.MIN_VALUE).setLow(Long.MIN_VALUE).build());
+        identifiers.add(NodeId.newBuilder().setHigh(Long.MIN_VALUE).setLow(Long.MAX_VALUE).build());
+        identifiers.add(NodeId.newBuilder().setHigh(Long.MAX_VALUE).setLow(0).build());
+        for (final NodeId id : identifiers) {
+            assertTrue(set.add(id));
+        }
+        for (final NodeId id : identifiers) {
+            assertFalse(set.add(id));
+            assertTrue(set.contains(id));
+        }
+        assertFalse(set.contains(Utils.nodeIdFromUUID(UUID.randomUUID())));
+        assertEquals(identifiers.size(), set.size());
+        assertEquals(set.toList(), IdentifierSet.of(identifiers).toList());
+
+        final List<NodeId> sorted = set.toList();
+        for (int i = 1; i < sorted.size(); i++) {
+            assertTrue(sorted.get(i - 1).getHigh() < sorted.get(i).getHigh()
+                    || (sorted.get(i - 1).getHigh() == sorted.get(i).getHigh()
+                        && sorted.get(i - 1).getLow() < sorted.get(i).getLow()));
+        }
+    }
+
+    /**
+     * The packed form decodes to the same set and is smaller than the repeated NodeId field it replaces.
+     */
+    @Test
+    public void encodeDecodeRoundTrip() {
+        final List<NodeId> identifiers = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            identifiers.add(Utils.nodeIdFromUUID(UUID.randomUUID()));
+        }
+        identifiers.add(NodeId.newBuilder().setHigh(Long.MIN_VALUE).setLow(Long.MIN_VALUE).build());
+        identifiers.add(NodeId.newBuilder().setHigh(Long.MAX_VALUE).setLow(Long.MAX_VALUE).build());
+        final IdentifierSet set = IdentifierSet.of(identifiers);
+        final ByteString encoded = set.encode();
+        assertEquals(set.toList(), IdentifierSet.decode(encoded).toList());
+        assertEquals(0, IdentifierSet.decode(new IdentifierSet().encode()).size());
+
+        final int repeatedSize = JoinResponse.newBuilder().addAllIdentifiers(identifiers).build().getSerializedSize();
+        final int packedSize = JoinResponse.newBuilder().setPackedIdentifiers(encoded).build().getSerializedSize();
+        assertTrue(packedSize + " vs " + repeatedSize, packedSize * 4 < repeatedSize * 3);
+    }
+
+    @Test
+    public void decodeRejectsMalformedInput() {
+        try {
+            IdentifierSet.decode(ByteString.copyFrom(new byte[]{5, 1}));
+            fail();
+        } catch (final IllegalArgumentException ignored) {
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vrg.rapid.pb.Endpoint;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the publisher of membership deltas. Deltas are delivered on the calling thread.
+ */
+public class MembershipDeltaPublisherTest {
+    private static final Endpoint A = Utils.hostFromParts("127.0.0.1", 1);
+    private static final Endpoint B = Utils.hostFromParts("127.0.0.1", 2);
+    private static final Endpoint C = Utils.hostFromParts("127.0.0.1", 3);
+    private final List<Endpoint> members = new ArrayList<>(Collections.singletonList(A));
+    private long configurationId = 1;
+    private final MembershipDeltaPublisher publisher = new MembershipDeltaPublisher(MoreExecutors.directExecutor(),
+            () -> new MembershipDelta(configurationId, new ArrayList<>(members), Collections.emptyList(), true));
+
+    /**
+     * A subscriber first gets a snapshot, and then one delta per request.
+     */
+    @Test
+    public void snapshotThenDeltasOnDemand() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertNotNull(subscriber.subscription);
+        assertTrue(subscriber.deltas.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.deltas.size());
+        assertTrue(subscriber.deltas.get(0).isSnapshot());
+        assertEquals(Collections.singletonList(A), subscriber.deltas.get(0).getAdded());
+
+        addMember(B);
+        assertEquals(1, subscriber.deltas.size());
+        subscriber.subscription.request(1);
+        assertEquals(2, subscriber.deltas.size());
+        final MembershipDelta delta = subscriber.deltas.get(1);
+        assertFalse(delta.isSnapshot());
+        assertEquals(configurationId, delta.getConfigurationId());
+        assertEquals(Collections.singletonList(B), delta.getAdded());
+        assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    /**
+     * View changes without outstanding demand are merged into one delta.
+     */
+    @Test
+    public void viewChangesWithoutDemandAreMerged() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        addMember(B);
+        addMember(C);
+        removeMember(B);
+        removeMember(A);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, subscriber.deltas.size());
+        final MembershipDelta delta = subscriber.deltas.get(1);
+        assertEquals(configurationId, delta.getConfigurationId());
+        assertEquals(Collections.singletonList(C), delta.getAdded());
+        assertEquals(Collections.singletonList(A), delta.getRemoved());
+    }
+
+    /**
+     * A delta for the configuration that a snapshot already reflects is not delivered, and a snapshot can be
+     * requested again later.
+     */
+    @Test
+    public void snapshotSupersedesDeltas() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        members.add(B);
+        configurationId++;
+        subscriber.subscription.request(Long.MAX_VALUE);
+        // The view changed before the snapshot was taken, but its delta is published afterwards
+        publisher.onViewChange(configurationId, Collections.singletonList(B), Collections.emptyList());
+        assertEquals(1, subscriber.deltas.size());
+        assertEquals(Arrays.asList(A, B), subscriber.deltas.get(0).getAdded());
+
+        subscriber.subscription.requestSnapshot();
+        assertEquals(2, subscriber.deltas.size());
+        assertTrue(subscriber.deltas.get(1).isSnapshot());
+    }
+
+    /**
+     * Invalid demand fails the subscription, and shutting down completes the others.
+     */
+    @Test
+    public void invalidDemandAndCompletion() {
+        final RecordingSubscriber failing = new RecordingSubscriber();
+        final RecordingSubscriber completing = new RecordingSubscriber();
+        publisher.subscribe(failing);
+        publisher.subscribe(completing);
+        failing.subscription.request(0);
+        assertTrue(failing.error instanceof IllegalArgumentException);
+
+        publisher.shutdown();
+        assertTrue(completing.isCompleted);
+        assertFalse(failing.isCompleted);
+    }
+
+    /**
+     * A subscriber whose onSubscribe() throws is cancelled, without affecting other subscribers.
+     */
+    @Test
+    public void failingOnSubscribeCancels() {
+        final RecordingSubscriber failing = new RecordingSubscriber() {
+            @Override
+            public void onSubscribe(final MembershipDeltaPublisher.Subscription subscription) {
+                super.onSubscribe(subscription);
+                throw new IllegalStateException("Expected");
+            }
+        };
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(failing);
+        publisher.subscribe(subscriber);
+        failing.subscription.request(1);
+        subscriber.subscription.request(2);
+        addMember(B);
+        assertTrue(failing.deltas.isEmpty());
+        assertEquals(2, subscriber.deltas.size());
+    }
+
+    /**
+     * A subscriber added once the executor has shut down is completed right away.
+     */
+    @Test
+    public void subscribeAfterShutdownCompletes() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        final MembershipDeltaPublisher shutDownPublisher = new MembershipDeltaPublisher(executor,
+                () -> new MembershipDelta(configurationId, new ArrayList<>(members), Collections.emptyList(), true));
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        shutDownPublisher.subscribe(subscriber);
+        assertNotNull(subscriber.subscription);
+        assertTrue(subscriber.isCompleted);
+        assertTrue(subscriber.deltas.isEmpty());
+    }
+
+    private void addMember(final Endpoint node) {
+        members.add(node);
+        configurationId++;
+        publisher.onViewChange(configurationId, Collections.singletonList(node), Collections.emptyList());
+    }
+
+    private void removeMember(final Endpoint node) {
+        members.remove(node);
+        configurationId++;
+        publisher.onViewChange(configurationId, Collections.emptyList(), Collections.singletonList(node));
+    }
+
+    private static class RecordingSubscriber implements MembershipDeltaPublisher.Subscriber {
+        private final List<MembershipDelta> deltas = new ArrayList<>();
+        @Nullable private MembershipDeltaPublisher.Subscription subscription = null;
+        @Nullable private Throwable error = null;
+        private boolean isCompleted = false;
+
+        @Override
+        public void onSubscribe(final MembershipDeltaPublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final MembershipDelta delta) {
+            deltas.add(delta);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            this.error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            this.isCompleted = true;
+        }
+    }
+}
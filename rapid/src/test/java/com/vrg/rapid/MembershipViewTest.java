@@ -20,10 +20,15 @@ import org.junit.Test;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
@@ -234,6 +239,32 @@ public class MembershipViewTest {
         }
     }
 
+    /**
+     * Distinct subjects list each subject once, in the order of getSubjectsOf(), and the ring numbers of
+     * each distinct subject cover all K rings.
+     */
+    @Test
+    public void distinctSubjects() {
+        try {
+            final MembershipView mview = new MembershipView(K);
+            final Endpoint n1 = Utils.hostFromParts("127.0.0.1", 1);
+            mview.ringAdd(n1, Utils.nodeIdFromUUID(UUID.randomUUID()));
+            assertEquals(0, mview.getDistinctSubjectsOf(n1).size());
+            for (int i = 2; i <= 4; i++) {
+                mview.ringAdd(Utils.hostFromParts("127.0.0.1", i), Utils.nodeIdFromUUID(UUID.randomUUID()));
+            }
+            final List<Endpoint> distinct = mview.getDistinctSubjectsOf(n1);
+            assertEquals(ImmutableSet.copyOf(mview.getSubjectsOf(n1)).asList(), distinct);
+            int numRings = 0;
+            for (final Endpoint subject : distinct) {
+                numRings += mview.getRingNumbers(n1, subject).size();
+            }
+            assertEquals(K, numRings);
+        } catch (final MembershipView.NodeAlreadyInRingException | MembershipView.NodeNotInRingException e) {
+            fail();
+        }
+    }
+
     /**
      * Verify the monitoring relationships in a three node setting
      */
@@ -497,4 +528,241 @@ public class MembershipViewTest {
         }
         assertEquals(iter1.next(), iter2.next());
     }
-}
\ No newline at end of file
+
+    /**
+     * The incrementally maintained configuration identifier must match the one computed by a joiner that
+     * bootstraps its view from the materialized configuration, including after deletions.
+     */
+    @Test
+    public void incrementalConfigurationIdMatchesBootstrappedView() {
+        final MembershipView mview = new MembershipView(K);
+        for (int i = 0; i < 100; i++) {
+            mview.ringAdd(Utils.hostFromParts("127.0.0.1", i), Utils.nodeIdFromUUID(UUID.randomUUID()));
+        }
+        for (int i = 0; i < 100; i += 3) {
+            mview.ringDelete(Utils.hostFromParts("127.0.0.1", i));
+        }
+        final MembershipView.Configuration configuration = mview.getConfiguration();
+        assertEquals(mview.getCurrentConfigurationId(), configuration.getConfigurationId());
+        assertEquals(100, configuration.identifiers.size());
+        assertEquals(mview.getMembershipSize(), configuration.endpoints.size());
+
+        final MembershipView joinerView =
+                new MembershipView(K, configuration.identifiers.toList(), configuration.endpoints);
+        assertEquals(mview.getCurrentConfigurationId(), joinerView.getCurrentConfigurationId());
+        assertEquals(configuration.getConfigurationId(),
+                MembershipView.Configuration.getConfigurationId(configuration.identifiers, configuration.endpoints));
+
+        mview.ringAdd(Utils.hostFromParts("127.0.0.1", 0), Utils.nodeIdFromUUID(UUID.randomUUID()));
+        assertNotEquals(configuration.getConfigurationId(), mview.getCurrentConfigurationId());
+    }
+
+    /**
+     * Nodes only agree on a configuration if they compute the same identifier for it, so the identifier of a
+     * fixed membership is part of the wire protocol. A change to these values breaks compatibility with nodes
+     * of earlier releases.
+     */
+    @Test
+    public void configurationIdIsPinned() {
+        final MembershipView mview = new MembershipView(K);
+        for (int i = 1; i <= 5; i++) {
+            mview.ringAdd(Utils.hostFromParts("127.0.0.1", 1000 + i), Utils.nodeIdFromUUID(new UUID(i, i * 31L)));
+        }
+        assertEquals(-5180224989557037810L, mview.getCurrentConfigurationId());
+        assertEquals(-5180224989557037810L, mview.getConfiguration().getConfigurationId());
+
+        // Identifiers of removed nodes remain part of the configuration
+        mview.ringDelete(Utils.hostFromParts("127.0.0.1", 1003));
+        assertEquals(1234469005006079337L, mview.getCurrentConfigurationId());
+        assertEquals(1234469005006079337L, mview.getConfiguration().getConfigurationId());
+    }
+
+    /**
+     * Snapshots are versioned, unaffected by later changes to the view, and share their ring lists.
+     */
+    @Test
+    public void snapshotsAreImmutableAndShared() {
+        final MembershipView mview = new MembershipView(K);
+        for (int i = 0; i < 10; i++) {
+            mview.ringAdd(Utils.hostFromParts("127.0.0.1", i), Utils.nodeIdFromUUID(UUID.randomUUID()));
+        }
+        final MembershipSnapshot before = mview.getSnapshot();
+        final List<Endpoint> ringBefore = before.getRing(0);
+        final List<Endpoint> observersBefore = before.getObserversOf(Utils.hostFromParts("127.0.0.1", 0));
+        assertTrue(ringBefore == mview.getRing(0));
+
+        mview.ringDelete(Utils.hostFromParts("127.0.0.1", 1));
+        mview.ringAdd(Utils.hostFromParts("127.0.0.1", 10), Utils.nodeIdFromUUID(UUID.randomUUID()));
+        final MembershipSnapshot after = mview.getSnapshot();
+        assertEquals(before.getVersion() + 2, after.getVersion());
+        assertNotEquals(before.getConfigurationId(), after.getConfigurationId());
+
+        assertEquals(10, before.getMembershipSize());
+        assertTrue(before.isHostPresent(Utils.hostFromParts("127.0.0.1", 1)));
+        assertTrue(!before.isHostPresent(Utils.hostFromParts("127.0.0.1", 10)));
+        assertEquals(ringBefore, before.getRing(0));
+        assertEquals(observersBefore, before.getObserversOf(Utils.hostFromParts("127.0.0.1", 0)));
+        assertTrue(!after.isHostPresent(Utils.hostFromParts("127.0.0.1", 1)));
+        assertTrue(after.isHostPresent(Utils.hostFromParts("127.0.0.1", 10)));
+    }
+
+    /**
+     * Interleave additions and deletions, and check that the rings and the observer/subject relationships
+     * match those of a reference ring built from a sorted set ordered by the ring's comparator.
+     */
+    @Test
+    public void ringsMatchSortedReference() {
+        final MembershipView mview = new MembershipView(K);
+        final Random random = new Random(0);
+        final List<Endpoint> members = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            if (members.isEmpty() || random.nextInt(3) > 0) {
+                final Endpoint node = Utils.hostFromParts("127.0.0." + random.nextInt(8), i);
+                mview.ringAdd(node, Utils.nodeIdFromUUID(UUID.randomUUID()));
+                members.add(node);
+            } else {
+                mview.ringDelete(members.remove(random.nextInt(members.size())));
+            }
+        }
+        assertEquals(members.size(), mview.getMembershipSize());
+
+        for (int k = 0; k < K; k++) {
+            final TreeSet<Endpoint> reference = new TreeSet<>(new MembershipView.AddressComparator(k));
+            reference.addAll(members);
+            assertEquals(new ArrayList<>(reference), mview.getRing(k));
+            for (final Endpoint node : members) {
+                final Endpoint successor = reference.higher(node) == null ? reference.first() : reference.higher(node);
+                final Endpoint predecessor = reference.lower(node) == null ? reference.last() : reference.lower(node);
+                assertEquals(successor, mview.getObserversOf(node).get(k));
+                assertEquals(predecessor, mview.getSubjectsOf(node).get(k));
+                assertTrue(mview.getRingNumbers(node, predecessor).contains(k));
+            }
+        }
+
+        // A node that is not a member is placed between the same neighbours it would have after joining
+        final Endpoint joiner = Utils.hostFromParts("127.0.0.9", 1);
+        final List<Endpoint> expectedObservers = mview.getExpectedObserversOf(joiner);
+        mview.ringAdd(joiner, Utils.nodeIdFromUUID(UUID.randomUUID()));
+        assertEquals(expectedObservers, mview.getSubjectsOf(joiner));
+    }
+
+    /**
+     * Applying a batch of additions and removals as one change must produce the same rings, relationships
+     * and configuration as applying them one node at a time, large enough to exercise the parallel ring rebuild.
+     * An invalid batch must leave the view unchanged.
+     */
+    @Test
+    public void batchedViewChangeMatchesSequentialChanges() {
+        final int numNodes = 2000;
+        final MembershipView sequential = new MembershipView(K);
+        final MembershipView batched = new MembershipView(K);
+        final Map<Endpoint, NodeId> initial = new LinkedHashMap<>();
+        for (int i = 0; i < numNodes; i++) {
+            final Endpoint node = Utils.hostFromParts("127.0.0.1", i);
+            final NodeId nodeId = Utils.nodeIdFromUUID(UUID.randomUUID());
+            sequential.ringAdd(node, nodeId);
+            initial.put(node, nodeId);
+        }
+        batched.applyViewChange(initial, Collections.emptyList());
+        assertEquals(1, batched.getSnapshot().getVersion());
+
+        final Map<Endpoint, NodeId> additions = new LinkedHashMap<>();
+        final List<Endpoint> removals = new ArrayList<>();
+        for (int i = 0; i < numNodes; i += 4) {
+            removals.add(Utils.hostFromParts("127.0.0.1", i));
+            additions.put(Utils.hostFromParts("127.0.0.2", i), Utils.nodeIdFromUUID(UUID.randomUUID()));
+        }
+        removals.forEach(sequential::ringDelete);
+        additions.forEach(sequential::ringAdd);
+        batched.applyViewChange(additions, removals);
+        assertEquals(2, batched.getSnapshot().getVersion());
+
+        assertEquals(sequential.getCurrentConfigurationId(), batched.getCurrentConfigurationId());
+        assertEquals(sequential.getMembershipSize(), batched.getMembershipSize());
+        for (int k = 0; k < K; k++) {
+            assertEquals(sequential.getRing(k), batched.getRing(k));
+        }
+        for (final Endpoint node : batched.getRing(0)) {
+            assertEquals(sequential.getObserversOf(node), batched.getObserversOf(node));
+            assertEquals(sequential.getSubjectsOf(node), batched.getSubjectsOf(node));
+        }
+
+        final MembershipSnapshot before = batched.getSnapshot();
+        try {
+            batched.applyViewChange(Collections.singletonMap(Utils.hostFromParts("127.0.0.3", 1),
+                                                             Utils.nodeIdFromUUID(UUID.randomUUID())),
+                                    Collections.singletonList(Utils.hostFromParts("127.0.0.1", 0)));
+            fail();
+        } catch (final MembershipView.NodeNotInRingException ignored) {
+        }
+        assertTrue(before == batched.getSnapshot());
+        assertTrue(!batched.isHostPresent(Utils.hostFromParts("127.0.0.3", 1)));
+    }
+
+    /**
+     * The adjacency index is patched incrementally for small batches. After each batch, observers, subjects
+     * and ring numbers must match those of a view bootstrapped from scratch with the same members.
+     */
+    @Test
+    public void adjacencyIndexMatchesBootstrappedView() {
+        final MembershipView mview = new MembershipView(K);
+        final Random random = new Random(1);
+        final List<Endpoint> members = new ArrayList<>();
+        int nextPort = 0;
+        for (int i = 0; i < 300; i++) {
+            final Endpoint node = Utils.hostFromParts("127.0.0.1", nextPort++);
+            mview.ringAdd(node, Utils.nodeIdFromUUID(UUID.randomUUID()));
+            members.add(node);
+        }
+        for (int round = 0; round < 50; round++) {
+            final Map<Endpoint, NodeId> additions = new LinkedHashMap<>();
+            final List<Endpoint> removals = new ArrayList<>();
+            final int changes = 1 + random.nextInt(10);
+            for (int i = 0; i < changes; i++) {
+                if (random.nextBoolean()) {
+                    final Endpoint node = Utils.hostFromParts("127.0.0.1", nextPort++);
+                    additions.put(node, Utils.nodeIdFromUUID(UUID.randomUUID()));
+                } else {
+                    removals.add(members.remove(random.nextInt(members.size())));
+                }
+            }
+            mview.applyViewChange(additions, removals);
+            members.addAll(additions.keySet());
+
+            final MembershipView reference = new MembershipView(K, Collections.emptyList(), members);
+            assertEquals(reference.getRing(0), mview.getRing(0));
+            for (final Endpoint node : members) {
+                final List<Endpoint> observers = reference.getObserversOf(node);
+                assertEquals(observers, mview.getObserversOf(node));
+                assertEquals(reference.getSubjectsOf(node), mview.getSubjectsOf(node));
+                assertEquals(reference.getSubjectsOf(node), mview.getExpectedObserversOf(node));
+                for (final Endpoint observer : observers) {
+                    assertEquals(reference.getRingNumbers(observer, node), mview.getRingNumbers(observer, node));
+                }
+            }
+        }
+    }
+
+    /**
+     * A joiner bootstraps its view from a JoinResponse, building large rings concurrently. The result must be
+     * identical to the view it was materialized from, which was built one node at a time.
+     */
+    @Test
+    public void largeBootstrappedViewMatchesIncrementalView() {
+        final MembershipView mview = new MembershipView(K);
+        for (int i = 0; i < 5000; i++) {
+            mview.ringAdd(Utils.hostFromParts("10.0." + (i % 7) + ".1", i), Utils.nodeIdFromUUID(UUID.randomUUID()));
+        }
+        final MembershipView.Configuration configuration = mview.getConfiguration();
+        final MembershipView joinerView =
+                new MembershipView(K, configuration.identifiers.copy(), configuration.endpoints);
+        assertEquals(mview.getCurrentConfigurationId(), joinerView.getCurrentConfigurationId());
+        for (int k = 0; k < K; k++) {
+            assertEquals(mview.getRing(k), joinerView.getRing(k));
+        }
+        for (final Endpoint node : configuration.endpoints) {
+            assertEquals(mview.getObserversOf(node), joinerView.getObserversOf(node));
+            assertEquals(mview.getSubjectsOf(node), joinerView.getSubjectsOf(node));
+        }
+    }
+}
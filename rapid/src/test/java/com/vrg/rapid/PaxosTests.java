@@ -206,7 +206,7 @@ public class PaxosTests {
             final Consumer<List<Endpoint>> onDecide = (k) -> { };
             final Endpoint addr = Utils.hostFromParts("127.0.0.1", 1234);
 
-            final Paxos paxos = new Paxos(addr, 1, N, new NoOpClient(), new NoOpBroadcaster(), onDecide);
+            final Paxos paxos = new Paxos(addr, 1, membersOf(N), new NoOpClient(), new NoOpBroadcaster(), onDecide);
             final List<Phase1bMessage> messages = new ArrayList<>();
 
             // Highest ranked proposal, proposals[0]
@@ -313,7 +313,7 @@ public class PaxosTests {
             final Consumer<List<Endpoint>> onDecide = (k) -> { };
             final Endpoint addr = Utils.hostFromParts("127.0.0.1", 1234);
 
-            final Paxos paxos = new Paxos(addr, 1, N, new NoOpClient(), new NoOpBroadcaster(), onDecide);
+            final Paxos paxos = new Paxos(addr, 1, membersOf(N), new NoOpClient(), new NoOpBroadcaster(), onDecide);
             final List<Phase1bMessage> messages = new ArrayList<>();
 
             final Rank rank1 = Rank.newBuilder().setNodeIndex(1).setRound(1).build();
@@ -408,16 +408,28 @@ public class PaxosTests {
         final DirectBroadcaster directBroadcaster = new DirectBroadcaster(instances, messagingClient);
         final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(numNodes);
         final FastPaxos.ISettings settings = new Settings();
+        final EndpointIndex members = membersOf(numNodes);
         for (int i = 0; i < numNodes; i++) {
             final Endpoint addr = Utils.hostFromParts("127.0.0.1", 1234 + i);
             executorServiceMap.put(addr, Executors.newSingleThreadExecutor());
-            final FastPaxos paxos = new FastPaxos(addr, 1, numNodes, messagingClient, directBroadcaster,
+            final FastPaxos paxos = new FastPaxos(addr, 1, members, messagingClient, directBroadcaster,
                                                   scheduler, onDecide, settings);
             instances.put(addr, paxos);
         }
         return instances;
     }
 
+    /**
+     * The interning table of a configuration with the #numNodes members created by createNFastPaxosInstances().
+     */
+    private static EndpointIndex membersOf(final int numNodes) {
+        final EndpointIndex members = new EndpointIndex(numNodes);
+        for (int i = 0; i < numNodes; i++) {
+            members.add(Utils.hostFromParts("127.0.0.1", 1234 + i));
+        }
+        return members;
+    }
+
     /**
      * Directly wires Paxos messages to the instances.
      */
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the timer wheel that runs edge failure detectors.
+ */
+public class ProbeSchedulerTest {
+    private static final int INTERVAL_IN_MS = 100;
+    private final Map<Endpoint, AtomicInteger> runs = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setup() {
+        runs.clear();
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Every detector runs about once per interval, and detectors of subjects that are gone stop running
+     * while the remaining ones keep going.
+     */
+    @Test(timeout = 10000)
+    public void detectorsRunOncePerIntervalAcrossViewChanges() throws InterruptedException {
+        final ProbeScheduler scheduler = new ProbeScheduler(executor, INTERVAL_IN_MS);
+        scheduler.setDetectors(detectorsFor(0, 20));
+        Thread.sleep(10 * INTERVAL_IN_MS);
+        for (final AtomicInteger count : runs.values()) {
+            assertTrue(count.get() >= 5 && count.get() <= 11);
+        }
+
+        scheduler.pause();
+        scheduler.setDetectors(detectorsFor(10, 30));
+        final Map<Endpoint, Integer> before = new LinkedHashMap<>();
+        runs.forEach((subject, count) -> before.put(subject, count.get()));
+        Thread.sleep(5 * INTERVAL_IN_MS);
+        for (int i = 0; i < 30; i++) {
+            final Endpoint subject = Utils.hostFromParts("127.0.0.1", i);
+            final int newRuns = runs.get(subject).get() - before.getOrDefault(subject, 0);
+            if (i < 10) {
+                assertEquals(0, newRuns);
+            } else {
+                assertTrue(newRuns > 0);
+            }
+        }
+        scheduler.shutdown();
+    }
+
+    /**
+     * A paused scheduler runs no detector.
+     */
+    @Test(timeout = 10000)
+    public void pausedSchedulerRunsNothing() throws InterruptedException {
+        final ProbeScheduler scheduler = new ProbeScheduler(executor, INTERVAL_IN_MS);
+        scheduler.setDetectors(detectorsFor(0, 10));
+        scheduler.pause();
+        Thread.sleep(3 * INTERVAL_IN_MS);
+        runs.values().forEach(count -> assertEquals(0, count.get()));
+        scheduler.shutdown();
+    }
+
+    private Map<Endpoint, Runnable> detectorsFor(final int from, final int to) {
+        final Map<Endpoint, Runnable> detectors = new LinkedHashMap<>();
+        for (int i = from; i < to; i++) {
+            final Endpoint subject = Utils.hostFromParts("127.0.0.1", i);
+            final AtomicInteger count = runs.computeIfAbsent(subject, k -> new AtomicInteger(0));
+            detectors.put(subject, count::incrementAndGet);
+        }
+        return detectors;
+    }
+}
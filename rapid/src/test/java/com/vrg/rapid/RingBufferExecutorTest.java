@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the ring buffer used to hand tasks to the protocol thread.
+ */
+public class RingBufferExecutorTest {
+    private static final int NUM_PRODUCERS = 4;
+    private static final int TASKS_PER_PRODUCER = 10000;
+    private final RingBufferExecutor executor = new RingBufferExecutor(16, Executors.defaultThreadFactory());
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Tasks from several producers, many more than fit in the ring, all run, and the tasks of
+     * each producer run in submission order.
+     */
+    @Test(timeout = 10000)
+    public void tasksRunInOrderPerProducer() throws InterruptedException {
+        final int[] lastSeen = new int[NUM_PRODUCERS];
+        final List<Integer> outOfOrder = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(NUM_PRODUCERS * TASKS_PER_PRODUCER);
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < NUM_PRODUCERS; p++) {
+            final int producer = p;
+            producers.add(new Thread(() -> {
+                for (int i = 1; i <= TASKS_PER_PRODUCER; i++) {
+                    final int task = i;
+                    executor.execute(() -> {
+                        if (lastSeen[producer] != task - 1) {
+                            outOfOrder.add(task);
+                        }
+                        lastSeen[producer] = task;
+                        done.countDown();
+                    });
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(outOfOrder.isEmpty());
+        for (final int last : lastSeen) {
+            assertEquals(TASKS_PER_PRODUCER, last);
+        }
+    }
+
+    /**
+     * Tasks submitted from the protocol thread itself run after the current task, even when the
+     * ring is full.
+     */
+    @Test(timeout = 10000)
+    public void tasksFromConsumerThreadDoNotBlock() throws InterruptedException {
+        final int numTasks = 100;
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            for (int i = 0; i < numTasks; i++) {
+                final int task = i;
+                executor.execute(() -> order.add(task));
+            }
+            executor.execute(done::countDown);
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(numTasks, order.size());
+        for (int i = 0; i < numTasks; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    /**
+     * A task submitted from the protocol thread runs after the ring tasks that other threads submitted
+     * before it, rather than ahead of them.
+     */
+    @Test(timeout = 10000)
+    public void tasksFromConsumerThreadKeepSubmissionOrder() throws InterruptedException {
+        final List<String> order = new ArrayList<>();
+        final CountDownLatch otherSubmitted = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        executor.execute(() -> {
+            try {
+                otherSubmitted.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor.execute(() -> {
+                order.add("local");
+                done.countDown();
+            });
+        });
+        executor.execute(() -> {
+            order.add("ring");
+            done.countDown();
+        });
+        otherSubmitted.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("ring", "local"), order);
+    }
+
+    /**
+     * Tasks that throw exceptions or errors do not stop the protocol thread.
+     */
+    @Test(timeout = 10000)
+    public void failingTasksDoNotStopTheConsumer() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            throw new IllegalStateException("Expected");
+        });
+        executor.execute(() -> {
+            throw new AssertionError("Expected");
+        });
+        executor.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
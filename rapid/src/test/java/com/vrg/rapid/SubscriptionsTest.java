@@ -26,6 +26,8 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -61,6 +63,9 @@ public class SubscriptionsTest {
                 .useSettings(settings)
                 .join(seedEndpoint);
 
+        // Subscriptions are notified asynchronously
+        seedCb.awaitCalls(2);
+        joinCb.awaitCalls(1);
         final List<Endpoint> firstEventAtSeed = seedCb.getMembershipLog().get(0);
         final List<Endpoint> secondEventAtSeed = seedCb.getMembershipLog().get(1);
         assertEquals(2, seedCb.numTimesCalled());
@@ -111,6 +116,10 @@ public class SubscriptionsTest {
                 .useSettings(settings)
                 .join(seedEndpoint);
 
+        seedCb1.awaitCalls(2);
+        seedCb2.awaitCalls(2);
+        joinCb1.awaitCalls(1);
+        joinCb2.awaitCalls(1);
         assertEquals(2, seedCb1.numTimesCalled());
         assertEquals(2, seedCb2.numTimesCalled());
         assertEquals(1, joinCb1.numTimesCalled());
@@ -152,6 +161,9 @@ public class SubscriptionsTest {
                 .useSettings(settings)
                 .join(seedEndpoint);
 
+        seedCb1.awaitCalls(2);
+        seedCb2.awaitCalls(1);
+        joinCb1.awaitCalls(1);
         assertEquals(2, seedCb1.numTimesCalled());
         assertEquals(1, seedCb2.numTimesCalled());
         assertEquals(1, joinCb1.numTimesCalled());
@@ -206,6 +218,10 @@ public class SubscriptionsTest {
 
         // Each node will hear a number of notifications equal to the number of nodes that joined
         // after it, as well as the notification from its own initialization
+        seedCb1.awaitCalls(numNodes + 1);
+        for (int i = 0; i < numNodes; i++) {
+            callbacks.get(i).awaitCalls(numNodes - i);
+        }
         assertEquals(numNodes + 1, seedCb1.numTimesCalled());
         testNodeStatus(seedCb1.getDeltaLog(), EdgeStatus.UP);
         for (int i = 0; i < numNodes; i++) {
@@ -224,6 +240,7 @@ public class SubscriptionsTest {
         // All joiners should receive one more event that includes the seed host having failed. This event
         // should be of type EdgeStatus.DOWN, and should also include the metadata about the seed node
         for (int i = 0; i < numNodes; i++) {
+            callbacks.get(i).awaitCalls(numNodes - i + 1);
             assertEquals(numNodes - i + 1, callbacks.get(i).getDeltaLog().size());
             final List<NodeStatusChange> lastNotification = callbacks.get(i).getDeltaLog().get(numNodes - i);
             assertEquals(1, lastNotification.size());
@@ -242,6 +259,54 @@ public class SubscriptionsTest {
         }
     }
 
+    /**
+     * A subscriber that blocks does not hold up the protocol. With coalescing, the view changes that queue up
+     * behind it are delivered as one event with the latest membership and all deltas.
+     */
+    @Test(timeout = 10000)
+    public void testSlowSubscriberWithCoalescing() throws IOException, InterruptedException {
+        final Settings settings = new Settings();
+        settings.setUseInProcessTransport(true);
+        settings.setCoalesceViewChanges(true);
+
+        final Endpoint seedEndpoint = Utils.hostFromParts("127.0.0.1", 1234);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestCallback seedCb = new TestCallback();
+        final Cluster seedCluster = new Cluster.Builder(seedEndpoint, seedEndpoint)
+                .addSubscription(ClusterEvents.VIEW_CHANGE, change -> {
+                    seedCb.accept(change);
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                })
+                .useSettings(settings)
+                .start();
+        seedCb.awaitCalls(1);
+
+        // Both joins complete while the seed's subscriber is blocked on the first event
+        final List<Cluster> joiners = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final Endpoint joiner = Utils.hostFromParts("127.0.0.1", 1235 + i);
+            joiners.add(new Cluster.Builder(joiner, joiner).useSettings(settings).join(seedEndpoint));
+        }
+        assertEquals(1, seedCb.numTimesCalled());
+
+        release.countDown();
+        seedCb.awaitCalls(2);
+        Thread.sleep(100);
+        assertEquals(2, seedCb.numTimesCalled());
+        assertEquals(3, seedCb.getMembershipLog().get(1).size());
+        assertEquals(2, seedCb.getDeltaLog().get(1).size());
+        testNodeStatus(seedCb.getDeltaLog(), EdgeStatus.UP);
+
+        seedCluster.shutdown();
+        for (final Cluster cluster: joiners) {
+            cluster.shutdown();
+        }
+    }
+
     /**
      * Helper that scans a notification log and checks whether all values match a given expectedValue.
      */
@@ -257,12 +322,18 @@ public class SubscriptionsTest {
      * Encapsulates a NodeStatusChange callback and counts the number of times it was invoked
      */
     private static class TestCallback implements Consumer<ClusterStatusChange> {
-        private final List<ClusterStatusChange> notificationLog = new ArrayList<>();
+        private final List<ClusterStatusChange> notificationLog = new CopyOnWriteArrayList<>();
 
         int numTimesCalled() {
             return notificationLog.size();
         }
 
+        void awaitCalls(final int numCalls) throws InterruptedException {
+            while (notificationLog.size() < numCalls) {
+                Thread.sleep(10);
+            }
+        }
+
         List<List<Endpoint>> getMembershipLog() {
             return notificationLog.stream().map(ClusterStatusChange::getMembership)
                     .collect(Collectors.toList());
@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid;
+
+import com.vrg.rapid.pb.Endpoint;
+
+/**
+ * Helpers shared by tests outside of this package, which cannot reach the package-private Utils.
+ */
+public final class TestUtils {
+    private TestUtils() {
+    }
+
+    /**
+     * An endpoint on the loopback address.
+     */
+    public static Endpoint localEndpoint(final int port) {
+        return Utils.hostFromParts("127.0.0.1", port);
+    }
+
+    public static Endpoint endpoint(final String hostname, final int port) {
+        return Utils.hostFromParts(hostname, port);
+    }
+
+    /**
+     * Runs a failure detector several times in a row, as its scheduler would.
+     */
+    public static void runRepeatedly(final Runnable detector, final int times) {
+        for (int i = 0; i < times; i++) {
+            detector.run();
+        }
+    }
+
+    /**
+     * Runs a failure detector several times, pausing between runs to give its messages time to arrive.
+     */
+    public static void runRepeatedly(final Runnable detector, final int times, final long pauseMs)
+                                                                                throws InterruptedException {
+        for (int i = 0; i < times; i++) {
+            detector.run();
+            Thread.sleep(pauseMs);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring;
+
+import com.vrg.rapid.pb.Endpoint;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.vrg.rapid.TestUtils.localEndpoint;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the record of when peers were last heard from.
+ */
+public class PeerActivityTrackerTest {
+
+    @Test
+    public void activityExpiresAndIsForgotten() throws InterruptedException {
+        final PeerActivityTracker tracker = new PeerActivityTracker();
+        final Endpoint peer = localEndpoint(1);
+        final Endpoint other = localEndpoint(2);
+        assertFalse(tracker.heardWithin(peer, 1000));
+
+        tracker.recordActivity(peer);
+        tracker.recordActivity(other);
+        assertTrue(tracker.heardWithin(peer, 1000));
+        Thread.sleep(20);
+        assertFalse(tracker.heardWithin(peer, 10));
+
+        tracker.retainAll(Collections.singletonList(other));
+        assertFalse(tracker.heardWithin(peer, 1000));
+        assertTrue(tracker.heardWithin(other, 1000));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring.impl;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.vrg.rapid.messaging.IMessagingClient;
+import com.vrg.rapid.pb.Endpoint;
+import com.vrg.rapid.pb.NodeStatus;
+import com.vrg.rapid.pb.ProbeResponse;
+import com.vrg.rapid.pb.RapidRequest;
+import com.vrg.rapid.pb.RapidResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.vrg.rapid.TestUtils.localEndpoint;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for helper selection and local health in the indirect probing failure detector.
+ */
+public class IndirectProbeFailureDetectorTest {
+
+    /**
+     * Helpers are distinct members other than the observer and the subject.
+     */
+    @Test
+    public void helpersExcludeObserverAndSubject() {
+        final List<Endpoint> members = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            members.add(localEndpoint(i));
+        }
+        final IndirectProbeFailureDetector.Factory factory =
+                new IndirectProbeFailureDetector.Factory(localEndpoint(0), null, 3);
+        assertTrue(factory.pickHelpers(localEndpoint(1)).isEmpty());
+
+        factory.onMembershipChange(members);
+        for (int i = 0; i < 100; i++) {
+            final List<Endpoint> helpers = factory.pickHelpers(localEndpoint(1));
+            final Set<Endpoint> distinct = new HashSet<>(helpers);
+            assertEquals(3, distinct.size());
+            assertFalse(distinct.contains(localEndpoint(0)));
+            assertFalse(distinct.contains(localEndpoint(1)));
+        }
+
+        factory.onMembershipChange(members.subList(0, 5));
+        assertEquals(new HashSet<>(members.subList(2, 5)), new HashSet<>(factory.pickHelpers(localEndpoint(1))));
+
+        factory.onMembershipChange(members.subList(0, 3));
+        assertEquals(1, factory.pickHelpers(localEndpoint(1)).size());
+    }
+
+    /**
+     * The local health score stays within its bounds.
+     */
+    @Test
+    public void localHealthIsBounded() {
+        final IndirectProbeFailureDetector.Factory factory =
+                new IndirectProbeFailureDetector.Factory(localEndpoint(0), null);
+        factory.adjustLocalHealth(-1);
+        assertEquals(0, factory.getLocalHealth());
+        for (int i = 0; i < 2 * IndirectProbeFailureDetector.MAX_LOCAL_HEALTH; i++) {
+            factory.adjustLocalHealth(1);
+        }
+        assertEquals(IndirectProbeFailureDetector.MAX_LOCAL_HEALTH, factory.getLocalHealth());
+    }
+
+    /**
+     * Local health rises by one per failed direct probe round, however many helpers reached the subject
+     * or failed to answer.
+     */
+    @Test
+    public void localHealthRisesOncePerRound() {
+        for (final boolean helpersReachSubject : new boolean[]{true, false}) {
+            final List<Endpoint> members = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                members.add(localEndpoint(i));
+            }
+            final IndirectProbeFailureDetector.Factory factory = new IndirectProbeFailureDetector.Factory(
+                    localEndpoint(0), new UnreachableSubjectClient(helpersReachSubject), 3);
+            factory.onMembershipChange(members);
+            final Runnable detector = factory.createInstance(localEndpoint(1), () -> { });
+            detector.run();
+            assertEquals(1, factory.getLocalHealth());
+            detector.run();
+            assertEquals(2, factory.getLocalHealth());
+        }
+    }
+
+    /**
+     * Fails direct probes immediately, and answers indirect probes either with the subject reachable or
+     * with a failure.
+     */
+    private static class UnreachableSubjectClient implements IMessagingClient {
+        private final boolean helpersReachSubject;
+
+        UnreachableSubjectClient(final boolean helpersReachSubject) {
+            this.helpersReachSubject = helpersReachSubject;
+        }
+
+        @Override
+        public ListenableFuture<RapidResponse> sendMessage(final Endpoint remote, final RapidRequest msg) {
+            return sendMessageBestEffort(remote, msg);
+        }
+
+        @Override
+        public ListenableFuture<RapidResponse> sendMessageBestEffort(final Endpoint remote, final RapidRequest msg) {
+            if (msg.getProbeMessage().hasTarget() && helpersReachSubject) {
+                return Futures.immediateFuture(RapidResponse.newBuilder().setProbeResponse(
+                        ProbeResponse.newBuilder().setStatus(NodeStatus.OK)).build());
+            }
+            return Futures.immediateFailedFuture(new RuntimeException("unreachable"));
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
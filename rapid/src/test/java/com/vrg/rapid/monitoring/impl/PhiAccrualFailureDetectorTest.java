@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring.impl;
+
+import com.vrg.rapid.pb.Endpoint;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the suspicion level computed by the phi-accrual failure detector.
+ */
+public class PhiAccrualFailureDetectorTest {
+    private static final long PROBE_INTERVAL_MS = 100;
+
+    /**
+     * Phi grows with the time since the last heartbeat, and crosses the threshold sooner on a regular
+     * link than on a jittery one.
+     */
+    @Test
+    public void phiAdaptsToHeartbeatJitter() {
+        final PhiAccrualFailureDetector regular = createDetector();
+        final PhiAccrualFailureDetector jittery = createDetector();
+        long regularNow = 0;
+        long jitteryNow = 0;
+        for (int i = 0; i < 200; i++) {
+            regularNow += PROBE_INTERVAL_MS;
+            regular.heartbeat(regularNow);
+            jitteryNow += i % 2 == 0 ? PROBE_INTERVAL_MS / 4 : 7 * PROBE_INTERVAL_MS / 4;
+            jittery.heartbeat(jitteryNow);
+        }
+        assertTrue(regular.phi(regularNow) < 1);
+        assertTrue(regular.phi(regularNow + PROBE_INTERVAL_MS) < regular.phi(regularNow + 3 * PROBE_INTERVAL_MS));
+
+        final long detectionTime = timeToThreshold(regular, regularNow);
+        assertTrue(detectionTime < 5 * PROBE_INTERVAL_MS);
+        assertTrue(detectionTime < timeToThreshold(jittery, jitteryNow));
+    }
+
+    private static long timeToThreshold(final PhiAccrualFailureDetector detector, final long lastHeartbeat) {
+        long elapsed = 0;
+        while (detector.phi(lastHeartbeat + elapsed) < PhiAccrualFailureDetector.DEFAULT_THRESHOLD) {
+            elapsed++;
+        }
+        return elapsed;
+    }
+
+    private static PhiAccrualFailureDetector createDetector() {
+        return new PhiAccrualFailureDetector(Endpoint.getDefaultInstance(), Endpoint.getDefaultInstance(),
+                                             null, () -> { }, PROBE_INTERVAL_MS,
+                                             PhiAccrualFailureDetector.DEFAULT_THRESHOLD);
+    }
+}
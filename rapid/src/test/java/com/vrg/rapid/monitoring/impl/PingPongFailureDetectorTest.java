@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring.impl;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.vrg.rapid.messaging.IMessagingClient;
+import com.vrg.rapid.pb.Endpoint;
+import com.vrg.rapid.pb.NodeStatus;
+import com.vrg.rapid.pb.ProbeResponse;
+import com.vrg.rapid.pb.RapidRequest;
+import com.vrg.rapid.pb.RapidResponse;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.vrg.rapid.TestUtils.localEndpoint;
+import static com.vrg.rapid.TestUtils.runRepeatedly;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the failure counting and adaptive probe interval of the ping-pong failure detector.
+ */
+public class PingPongFailureDetectorTest {
+    private static final int MAX_PROBE_PERIOD = 4;
+
+    /**
+     * Probes to a subject that keeps answering back off up to the maximum period, and a failed probe brings
+     * them back to every run.
+     */
+    @Test
+    public void probePeriodBacksOffAndResetsOnFailure() {
+        final ProbeCountingClient client = new ProbeCountingClient();
+        final Runnable detector = new PingPongFailureDetector.Factory(localEndpoint(1), client, null, 0,
+                MAX_PROBE_PERIOD).createInstance(localEndpoint(2), () -> { });
+
+        // Periods 1, 2 and 4, each for BACKOFF_AFTER_SUCCESSES probes
+        final int backoffRuns = PingPongFailureDetector.BACKOFF_AFTER_SUCCESSES * (1 + 2 + 4);
+        runRepeatedly(detector, backoffRuns);
+        assertEquals(3 * PingPongFailureDetector.BACKOFF_AFTER_SUCCESSES, client.probes.get());
+
+        // Stable at the maximum period
+        client.probes.set(0);
+        runRepeatedly(detector, 10 * MAX_PROBE_PERIOD);
+        assertEquals(10, client.probes.get());
+
+        // After one failure, the subject is probed on every run
+        client.probes.set(0);
+        client.answer = false;
+        runRepeatedly(detector, MAX_PROBE_PERIOD);
+        client.answer = true;
+        runRepeatedly(detector, 1);
+        assertEquals(2, client.probes.get());
+    }
+
+    /**
+     * Without an adaptive interval, every run sends a probe.
+     */
+    @Test
+    public void fixedPeriodProbesOnEveryRun() {
+        final ProbeCountingClient client = new ProbeCountingClient();
+        final Runnable detector = new PingPongFailureDetector.Factory(localEndpoint(1), client)
+                .createInstance(localEndpoint(2), () -> { });
+        runRepeatedly(detector, 50);
+        assertEquals(50, client.probes.get());
+    }
+
+    /**
+     * Answers from a bootstrapping subject do not make probes back off.
+     */
+    @Test
+    public void bootstrappingSubjectIsProbedOnEveryRun() {
+        final ProbeCountingClient client = new ProbeCountingClient();
+        client.status = NodeStatus.BOOTSTRAPPING;
+        final Runnable detector = new PingPongFailureDetector.Factory(localEndpoint(1), client, null, 0,
+                MAX_PROBE_PERIOD).createInstance(localEndpoint(2), () -> { });
+        runRepeatedly(detector, 20);
+        assertEquals(20, client.probes.get());
+    }
+
+    /**
+     * With a suspect interval, a subject whose probe failed is probed again without waiting for the next
+     * run, and is reported on the first run after FAILURE_THRESHOLD failures.
+     */
+    @Test(timeout = 10000)
+    public void suspectedSubjectIsProbedBetweenRuns() throws InterruptedException {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final ProbeCountingClient client = new ProbeCountingClient();
+            client.answer = false;
+            final AtomicInteger notifications = new AtomicInteger(0);
+            final Runnable detector = new PingPongFailureDetector.Factory(localEndpoint(1), client, null, 0,
+                    MAX_PROBE_PERIOD, executor, 10).createInstance(localEndpoint(2), notifications::incrementAndGet);
+            detector.run();
+            while (client.probes.get() < PingPongFailureDetector.FAILURE_THRESHOLD) {
+                Thread.sleep(10);
+            }
+            // Let the callback of the last probe count its failure
+            Thread.sleep(50);
+            detector.run();
+            assertEquals(1, notifications.get());
+            // Follow-up probes stop once the subject is reported
+            Thread.sleep(100);
+            assertEquals(PingPongFailureDetector.FAILURE_THRESHOLD, client.probes.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A detector is kept across view changes, so it may see many more failed probes over its lifetime than
+     * FAILURE_THRESHOLD. As long as they are interleaved with successful probes, the subject is not reported.
+     * Consecutive failures still are.
+     */
+    @Test
+    public void onlyConsecutiveFailuresAreReported() {
+        final ProbeCountingClient client = new ProbeCountingClient();
+        final AtomicInteger notifications = new AtomicInteger(0);
+        final Runnable detector = new PingPongFailureDetector.Factory(localEndpoint(1), client)
+                .createInstance(localEndpoint(2), notifications::incrementAndGet);
+        for (int i = 0; i < 10 * PingPongFailureDetector.FAILURE_THRESHOLD; i++) {
+            client.answer = i % 3 != 0;
+            detector.run();
+        }
+        assertEquals(0, notifications.get());
+
+        client.answer = false;
+        runRepeatedly(detector, PingPongFailureDetector.FAILURE_THRESHOLD + 1);
+        assertEquals(1, notifications.get());
+    }
+
+    /**
+     * Answers probes immediately, either with a status or with a failure.
+     */
+    private static class ProbeCountingClient implements IMessagingClient {
+        private final AtomicInteger probes = new AtomicInteger(0);
+        private volatile boolean answer = true;
+        private volatile NodeStatus status = NodeStatus.OK;
+
+        @Override
+        public ListenableFuture<RapidResponse> sendMessage(final Endpoint remote, final RapidRequest msg) {
+            return sendMessageBestEffort(remote, msg);
+        }
+
+        @Override
+        public ListenableFuture<RapidResponse> sendMessageBestEffort(final Endpoint remote, final RapidRequest msg) {
+            probes.incrementAndGet();
+            return answer ? Futures.immediateFuture(RapidResponse.newBuilder().setProbeResponse(
+                                    ProbeResponse.newBuilder().setStatus(status)).build())
+                          : Futures.immediateFailedFuture(new RuntimeException("unreachable"));
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2016 - 2020 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an “AS IS” BASIS, without warranties or conditions of any kind,
+ * EITHER EXPRESS OR IMPLIED. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.vrg.rapid.monitoring.impl;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.vrg.rapid.TestUtils.endpoint;
+import static com.vrg.rapid.TestUtils.localEndpoint;
+import static com.vrg.rapid.TestUtils.runRepeatedly;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the UDP heartbeat failure detector, over loopback.
+ */
+public class UdpHeartbeatFailureDetectorTest {
+    private static final int PROBE_INTERVAL_MS = 50;
+    private EventLoopGroup eventLoopGroup;
+
+    @Before
+    public void setup() {
+        eventLoopGroup = new NioEventLoopGroup(1);
+    }
+
+    @After
+    public void cleanup() {
+        eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).awaitUninterruptibly();
+    }
+
+    /**
+     * A subject that answers pings is never reported. Once it goes away, it is reported exactly once.
+     */
+    @Test(timeout = 10000)
+    public void reportsSubjectOnlyAfterItStopsAnswering() throws InterruptedException {
+        final UdpHeartbeatFailureDetector.Factory observer =
+                new UdpHeartbeatFailureDetector.Factory(localEndpoint(1234), eventLoopGroup);
+        final UdpHeartbeatFailureDetector.Factory subject =
+                new UdpHeartbeatFailureDetector.Factory(localEndpoint(1235), eventLoopGroup);
+        final AtomicInteger notifications = new AtomicInteger(0);
+        final Runnable detector = observer.createInstance(localEndpoint(1235), notifications::incrementAndGet);
+
+        runRepeatedly(detector, 2 * UdpHeartbeatFailureDetector.FAILURE_THRESHOLD, PROBE_INTERVAL_MS);
+        assertEquals(0, notifications.get());
+
+        subject.shutdown();
+        runRepeatedly(detector, 2 * UdpHeartbeatFailureDetector.FAILURE_THRESHOLD, PROBE_INTERVAL_MS);
+        assertEquals(1, notifications.get());
+        observer.shutdown();
+    }
+
+    /**
+     * A subject that never answers is reported after FAILURE_THRESHOLD missed pongs.
+     */
+    @Test(timeout = 10000)
+    public void reportsSilentSubject() throws InterruptedException {
+        final UdpHeartbeatFailureDetector.Factory observer =
+                new UdpHeartbeatFailureDetector.Factory(localEndpoint(1234), eventLoopGroup);
+        final AtomicInteger notifications = new AtomicInteger(0);
+        final Runnable detector = observer.createInstance(localEndpoint(1236), notifications::incrementAndGet);
+
+        runRepeatedly(detector, UdpHeartbeatFailureDetector.FAILURE_THRESHOLD, PROBE_INTERVAL_MS);
+        assertEquals(0, notifications.get());
+        runRepeatedly(detector, 1, PROBE_INTERVAL_MS);
+        assertEquals(1, notifications.get());
+        observer.shutdown();
+    }
+
+    /**
+     * Pongs from another host that guesses nonces do not keep a silent subject alive.
+     */
+    @Test(timeout = 10000)
+    public void forgedPongsDoNotHideSilentSubject() throws IOException, InterruptedException {
+        final UdpHeartbeatFailureDetector.Factory observer =
+                new UdpHeartbeatFailureDetector.Factory(localEndpoint(1234), eventLoopGroup);
+        final AtomicInteger notifications = new AtomicInteger(0);
+        final Runnable detector = observer.createInstance(localEndpoint(1236), notifications::incrementAndGet);
+        try (DatagramSocket forger = new DatagramSocket()) {
+            final InetSocketAddress observerAddress = new InetSocketAddress("127.0.0.1", 1234);
+            for (int i = 0; i <= UdpHeartbeatFailureDetector.FAILURE_THRESHOLD; i++) {
+                detector.run();
+                // Small counters were what sequence-numbered pings used to be matched by
+                for (long guess = 1; guess <= 100; guess++) {
+                    final ByteBuffer pong = ByteBuffer.allocate(UdpHeartbeatFailureDetector.PACKET_SIZE);
+                    pong.put(UdpHeartbeatFailureDetector.PONG).putLong(guess);
+                    forger.send(new DatagramPacket(pong.array(), pong.capacity(), observerAddress));
+                }
+                Thread.sleep(PROBE_INTERVAL_MS);
+            }
+        }
+        assertEquals(1, notifications.get());
+        observer.shutdown();
+    }
+
+    /**
+     * In loopback mode, nodes are reached on the loopback interface whatever their host names.
+     */
+    @Test(timeout = 10000)
+    public void loopbackModeIgnoresHostNames() throws InterruptedException {
+        final UdpHeartbeatFailureDetector.Factory observer =
+                new UdpHeartbeatFailureDetector.Factory(endpoint("node-a", 1234), eventLoopGroup, true);
+        final UdpHeartbeatFailureDetector.Factory subject =
+                new UdpHeartbeatFailureDetector.Factory(endpoint("node-b", 1235), eventLoopGroup, true);
+        final AtomicInteger notifications = new AtomicInteger(0);
+        final Runnable detector = observer.createInstance(endpoint("node-b", 1235), notifications::incrementAndGet);
+
+        runRepeatedly(detector, 2 * UdpHeartbeatFailureDetector.FAILURE_THRESHOLD, PROBE_INTERVAL_MS);
+        assertEquals(0, notifications.get());
+        subject.shutdown();
+        observer.shutdown();
+    }
+
+    /**
+     * A second factory cannot bind the port of a running one.
+     */
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void portClashFailsAtBind() {
+        final UdpHeartbeatFailureDetector.Factory first =
+                new UdpHeartbeatFailureDetector.Factory(localEndpoint(1234), eventLoopGroup);
+        try {
+            new UdpHeartbeatFailureDetector.Factory(localEndpoint(1234), eventLoopGroup);
+        } finally {
+            first.shutdown();
+        }
+    }
+}